@@ -0,0 +1,138 @@
+package com.oracle.graal.python.shell;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stands in for the GraalPy launcher when {@code PostBuildBenchmark} runs the build. It
+ * understands the commands the build issues and creates the venv, package and home trees they
+ * would produce, with the number and size of files configured in {@code stub.properties} next to
+ * the jar this class is loaded from. Other commands, such as the scripts that precompute the site
+ * configuration, do nothing.
+ */
+public final class GraalPythonMain {
+    private static final String PROPERTIES = "stub.properties";
+    private static final String VENV_PROPERTY = "graalpy.stub.venv";
+    private static final String STDLIB = String.join("/", "lib", "python3.10");
+    private static final String GRAALPY_LIB = String.join("/", "lib", "graalpy23.1");
+    private static final String SITE_PACKAGES = String.join("/", STDLIB, "site-packages");
+    private static final Pattern COPYTREE_TARGET = Pattern.compile("copytree\\(__graalpython__\\.home, '([^']*)'");
+    private static final int FILES_PER_DIRECTORY = 20;
+
+    private final int files;
+    private final byte[] content;
+
+    private GraalPythonMain(Properties config) {
+        files = Integer.parseInt(config.getProperty("files", "1000"));
+        var line = "x = 1\n".getBytes();
+        content = new byte[Integer.parseInt(config.getProperty("fileBytes", "1024"))];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = line[i % line.length];
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        // the launcher script generated by the build passes the arguments in the environment
+        String launcherArgs = System.getenv("GRAAL_PYTHON_ARGS");
+        var argList = new ArrayList<String>();
+        if (launcherArgs != null && args.length == 0) {
+            for (String arg : launcherArgs.split("\u000B")) {
+                if (!arg.isEmpty() && !arg.startsWith("--python.Executable=")) {
+                    argList.add(arg);
+                }
+            }
+        } else {
+            argList.addAll(Arrays.asList(args));
+        }
+        new GraalPythonMain(loadProperties()).run(argList);
+    }
+
+    private static Properties loadProperties() throws IOException {
+        var config = new Properties();
+        try {
+            Path jar = Paths.get(GraalPythonMain.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            Path file = jar.resolveSibling(PROPERTIES);
+            if (Files.exists(file)) {
+                try (InputStream in = Files.newInputStream(file)) {
+                    config.load(in);
+                }
+            }
+        } catch (java.net.URISyntaxException e) {
+            throw new IOException(e);
+        }
+        return config;
+    }
+
+    private void run(List<String> args) throws IOException {
+        String venv = System.getProperty(VENV_PROPERTY);
+        if (args.size() >= 3 && args.get(0).equals("-m") && args.get(1).equals("venv")) {
+            createVenv(Paths.get(args.get(2)));
+        } else if (venv != null && args.contains("ensurepip")) {
+            Path sitePackages = Paths.get(venv).resolve(SITE_PACKAGES);
+            createPackage(sitePackages, "pip");
+            createPackage(sitePackages, "setuptools");
+        } else if (venv != null && args.size() >= 4 && args.get(0).equals("-m") && args.get(1).equals("pip") && args.get(2).equals("install")) {
+            for (String pkg : args.subList(3, args.size())) {
+                createPackage(Paths.get(venv).resolve(SITE_PACKAGES), pkg.split("[=<>\\[ ]")[0]);
+            }
+        } else if (args.size() >= 2 && args.get(0).equals("-c")) {
+            Matcher m = COPYTREE_TARGET.matcher(args.get(1));
+            if (m.find()) {
+                Path home = Paths.get(m.group(1));
+                // the layout of a GraalPy 23.1 home
+                createPackage(home.resolve(STDLIB), "stdlib");
+                createPackage(home.resolve(GRAALPY_LIB), "modules");
+            }
+        }
+    }
+
+    private static void createVenv(Path venv) throws IOException {
+        Files.createDirectories(venv.resolve(SITE_PACKAGES));
+        Files.writeString(venv.resolve("pyvenv.cfg"), "home = stub\ninclude-system-site-packages = false\n");
+        Path bin = venv.resolve("bin").resolve("graalpy");
+        Files.createDirectories(bin.getParent());
+        Files.writeString(bin, String.format("""
+                        #!/usr/bin/env bash
+                        exec '%s' -classpath '%s' -D%s='%s' %s "$@"
+                        """,
+                        Paths.get(System.getProperty("java.home"), "bin", "java"),
+                        System.getProperty("java.class.path"),
+                        VENV_PROPERTY,
+                        venv.toAbsolutePath(),
+                        GraalPythonMain.class.getName()));
+        var perms = Files.getPosixFilePermissions(bin);
+        perms.add(PosixFilePermission.OWNER_EXECUTE);
+        Files.setPosixFilePermissions(bin, perms);
+    }
+
+    /**
+     * Writes a package with the configured number of modules, spread over subpackages of
+     * {@value #FILES_PER_DIRECTORY} files each.
+     */
+    private void createPackage(Path parent, String name) throws IOException {
+        Path pkg = parent.resolve(name);
+        Files.createDirectories(pkg);
+        Files.write(pkg.resolve("__init__.py"), content);
+        for (int i = 0; i < files; i++) {
+            Path dir = pkg.resolve("sub" + i / FILES_PER_DIRECTORY);
+            if (i % FILES_PER_DIRECTORY == 0) {
+                Files.createDirectories(dir);
+                Files.write(dir.resolve("__init__.py"), content);
+            }
+            Files.write(dir.resolve("module" + i % FILES_PER_DIRECTORY + ".py"), content);
+        }
+        Path distInfo = parent.resolve(name + "-1.0.dist-info");
+        Files.createDirectories(distInfo);
+        Files.writeString(distInfo.resolve("METADATA"), "Metadata-Version: 2.1\nName: " + name + "\nVersion: 1.0\n");
+    }
+}
@@ -0,0 +1,199 @@
+package org.graalvm.python.jbang;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import com.oracle.graal.python.shell.GraalPythonMain;
+
+/**
+ * Runs {@link JBangIntegration#postBuild} on a synthetic temporary jar and reports how long each
+ * stage of it took. GraalPy and pip are replaced by the stub {@link GraalPythonMain}, which
+ * creates venv, package and home trees with {@code --sizes} files each, so the build can be
+ * measured offline and without jbang.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar org.graalvm.python.jbang.PostBuildBenchmark \
+ *     --modes jvm,native --sizes 1000,10000 --runs 5 --output postbuild.json
+ * </pre>
+ *
+ * Each run installs {@code --packages} packages and drops the pip and setuptools packages the
+ * stub installs into every venv. Native runs also copy the home, in the layout of GraalPy 23.1,
+ * and with the engine cache enabled hash the build inputs. The stub is started as a separate
+ * process like the real launcher, so the {@code pip} and {@code home} stages include its JVM
+ * startup. Times are in microseconds. The generated launchers are shell scripts, so this does not
+ * run on Windows.
+ */
+public final class PostBuildBenchmark {
+    private static final String STUB_CLASS = GraalPythonMain.class.getName().replace('.', '/') + ".class";
+    private static final String[] ARTIFACTS = {"python-language", "python-resources", "python-launcher"};
+
+    private final Map<String, String> options = new HashMap<>();
+
+    private PostBuildBenchmark(String[] args) {
+        options.put("modes", "jvm");
+        options.put("sizes", "100,1000,10000");
+        options.put("runs", "5");
+        options.put("packages", "2");
+        options.put("file-bytes", "1024");
+        options.put("work", "target/postbuild");
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            if (i + 1 < args.length) {
+                options.put(args[i].substring(2), args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new PostBuildBenchmark(args).run();
+    }
+
+    private void run() throws Exception {
+        Path work = Paths.get(options.get("work")).toAbsolutePath();
+        int runs = Integer.parseInt(options.get("runs"));
+        var dependencies = createDependencies(work.resolve("repository"));
+        Path stubProperties = dependencies.get(dependencies.size() - 1).getValue().resolveSibling("stub.properties");
+
+        var results = new LinkedHashMap<String, List<Map<String, Long>>>();
+        for (String mode : options.get("modes").split(",")) {
+            boolean nativeImage = switch (mode) {
+                case "jvm" -> false;
+                case "native" -> true;
+                default -> throw new IllegalArgumentException("Unknown mode " + mode + ", expected jvm or native");
+            };
+            var comments = new ArrayList<String>();
+            for (int i = 0; i < Integer.parseInt(options.get("packages")); i++) {
+                comments.add("//PIP package" + i);
+            }
+            if (nativeImage) {
+                comments.add("//GRAALPY_ENGINE_CACHE");
+            }
+            for (String size : options.get("sizes").split(",")) {
+                Files.writeString(stubProperties, "files=" + size + "\nfileBytes=" + options.get("file-bytes") + "\n");
+                String configuration = mode + "-" + size;
+                var samples = new ArrayList<Map<String, Long>>();
+                for (int i = 0; i < runs; i++) {
+                    Path temporaryJar = work.resolve(configuration);
+                    delete(temporaryJar);
+                    Files.createDirectories(temporaryJar);
+                    samples.add(measure(temporaryJar, dependencies, comments, nativeImage));
+                    System.err.printf("%s run %d/%d: %s%n", configuration, i + 1, runs, samples.get(i));
+                }
+                results.put(configuration, samples);
+            }
+        }
+        String json = toJson(results);
+        if (options.containsKey("output")) {
+            Files.writeString(Paths.get(options.get("output")), json);
+        } else {
+            System.out.print(json);
+        }
+    }
+
+    private static Map<String, Long> measure(Path temporaryJar, List<Map.Entry<String, Path>> dependencies, List<String> comments, boolean nativeImage) {
+        var sample = new LinkedHashMap<String, Long>();
+        JBangIntegration.stageListener = (stage, nanos) -> sample.put(stage, nanos / 1_000);
+        long start = System.nanoTime();
+        try {
+            JBangIntegration.postBuild(temporaryJar, temporaryJar.resolve("pom.xml"), List.of(), dependencies, comments, nativeImage);
+        } finally {
+            JBangIntegration.stageListener = null;
+        }
+        sample.put("total", (System.nanoTime() - start) / 1_000);
+        return sample;
+    }
+
+    /**
+     * Lays out jars for the GraalPy artifacts the build expects in a Maven repository structure.
+     * The launcher jar contains the stub, the others are empty. The launcher comes last.
+     */
+    private static List<Map.Entry<String, Path>> createDependencies(Path repository) throws IOException {
+        var dependencies = new ArrayList<Map.Entry<String, Path>>();
+        for (String artifact : ARTIFACTS) {
+            Path jar = repository.resolve(Paths.get("org", "graalvm", "python", artifact, "stub", artifact + "-stub.jar"));
+            Files.createDirectories(jar.getParent());
+            try (var out = new JarOutputStream(Files.newOutputStream(jar))) {
+                if (artifact.equals("python-launcher")) {
+                    out.putNextEntry(new ZipEntry(STUB_CLASS));
+                    try (InputStream in = PostBuildBenchmark.class.getClassLoader().getResourceAsStream(STUB_CLASS)) {
+                        in.transferTo(out);
+                    }
+                    out.closeEntry();
+                }
+            }
+            dependencies.add(new AbstractMap.SimpleEntry<>("org.graalvm.python:" + artifact + ":stub", jar));
+        }
+        return dependencies;
+    }
+
+    private static void delete(Path dir) throws IOException {
+        if (Files.exists(dir)) {
+            try (var s = Files.walk(dir)) {
+                for (Path p : (Iterable<Path>) s.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(p);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the samples and a summary for each stage, in the format of {@code StartupBenchmark}.
+     */
+    private String toJson(Map<String, List<Map<String, Long>>> results) {
+        var sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"runs\": ").append(options.get("runs")).append(",\n");
+        sb.append("  \"packages\": ").append(options.get("packages")).append(",\n");
+        sb.append("  \"configurations\": {");
+        String configurationSep = "\n";
+        for (var configuration : results.entrySet()) {
+            var stages = new LinkedHashSet<String>();
+            configuration.getValue().forEach(s -> stages.addAll(s.keySet()));
+            sb.append(configurationSep).append("    \"").append(configuration.getKey()).append("\": {\n");
+            sb.append("      \"summary\": {");
+            String stageSep = "\n";
+            for (String stage : stages) {
+                long[] values = configuration.getValue().stream().map(s -> s.get(stage)).filter(v -> v != null).mapToLong(Long::longValue).sorted().toArray();
+                sb.append(stageSep).append("        \"").append(stage).append("\": ");
+                sb.append(String.format("{\"min\": %d, \"median\": %d, \"mean\": %d, \"max\": %d}",
+                                values[0], values[values.length / 2], (long) Arrays.stream(values).average().getAsDouble(), values[values.length - 1]));
+                stageSep = ",\n";
+            }
+            sb.append("\n      },\n");
+            sb.append("      \"samples\": [");
+            String sampleSep = "\n";
+            for (var sample : configuration.getValue()) {
+                sb.append(sampleSep).append("        {");
+                String valueSep = "";
+                for (var value : sample.entrySet()) {
+                    sb.append(valueSep).append('"').append(value.getKey()).append("\": ").append(value.getValue());
+                    valueSep = ", ";
+                }
+                sb.append("}");
+                sampleSep = ",\n";
+            }
+            sb.append("\n      ]\n    }");
+            configurationSep = ",\n";
+        }
+        sb.append("\n  }\n}\n");
+        return sb.toString();
+    }
+}
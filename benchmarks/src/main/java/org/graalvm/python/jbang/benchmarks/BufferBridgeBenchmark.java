@@ -0,0 +1,110 @@
+package org.graalvm.python.jbang.benchmarks;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares handing an array of doubles to Python through interop, where Python reads every
+ * element with a separate call, with the template's {@code PythonBuffers}, which shares or bulk
+ * copies the memory. Each benchmark ends with the data in a Python {@code array}, except
+ * {@code shareOnly}, which only creates the view. Divide {@code elements * 8} bytes by the
+ * reported time for the bandwidth.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+// the shaded benchmarks jar defeats the polyglot class path isolation
+@Fork(value = 1, jvmArgsAppend = "-Dpolyglotimpl.DisableClassPathIsolation=true")
+public class BufferBridgeBenchmark {
+    private static final String PYTHON_BUFFERS = "PythonBuffers";
+
+    @Param({"1024", "1048576"})
+    public int elements;
+
+    Context context;
+    double[] array;
+    ByteBuffer direct;
+    Value fromInterop;
+    Value fromBuffer;
+    Value bytesObject;
+    MethodHandle memoryview;
+    MethodHandle copyOf;
+    MethodHandle toByteBuffer;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        context = Context.newBuilder("python")
+            .allowAllAccess(true)
+            .option("engine.WarnInterpreterOnly", "false")
+            .option("python.PosixModuleBackend", "java")
+            .build();
+        array = new double[elements];
+        direct = ByteBuffer.allocateDirect(elements * Double.BYTES).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < elements; i++) {
+            array[i] = i;
+            direct.putDouble(i * Double.BYTES, i);
+        }
+        fromInterop = context.eval("python", "import array\nlambda a: array.array('d', a)");
+        fromBuffer = context.eval("python", "import array\ndef load(v):\n    a = array.array('d')\n    a.frombytes(v)\n    return a\nload");
+        bytesObject = context.eval("python", "bytes(" + elements * Double.BYTES + ")");
+
+        // the template classes are in the unnamed package, which cannot be imported
+        Class<?> buffers = Class.forName(PYTHON_BUFFERS);
+        var lookup = MethodHandles.privateLookupIn(buffers, MethodHandles.lookup());
+        memoryview = lookup.findStatic(buffers, "memoryview", MethodType.methodType(Value.class, Context.class, ByteBuffer.class, String.class));
+        copyOf = lookup.findStatic(buffers, "copyOf", MethodType.methodType(Value.class, Context.class, double[].class));
+        toByteBuffer = lookup.findStatic(buffers, "toByteBuffer", MethodType.methodType(ByteBuffer.class, Context.class, Value.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public Value interopArray() {
+        return fromInterop.execute((Object) array);
+    }
+
+    @Benchmark
+    public Value shareDirectBuffer() throws Throwable {
+        return fromBuffer.execute((Value) memoryview.invokeExact(context, direct, "d"));
+    }
+
+    @Benchmark
+    public Value copyOfArray() throws Throwable {
+        return fromBuffer.execute((Value) copyOf.invokeExact(context, array));
+    }
+
+    @Benchmark
+    public Value shareOnly() throws Throwable {
+        return (Value) memoryview.invokeExact(context, direct, "d");
+    }
+
+    @Benchmark
+    public ByteBuffer pythonBytesToJava() throws Throwable {
+        return (ByteBuffer) toByteBuffer.invokeExact(context, bytesObject);
+    }
+}
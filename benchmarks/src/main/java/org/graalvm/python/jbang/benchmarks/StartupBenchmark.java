@@ -0,0 +1,293 @@
+package org.graalvm.python.jbang.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the jbang template with jbang and measures how long the generated app takes to start.
+ * Each configuration is started {@code --runs} times with the {@code GRAALPY_STARTUP_TRACE}
+ * variable set, and the milestones the template reports are summarized as JSON.
+ *
+ * <pre>
+ * java -cp benchmarks/target/benchmarks.jar org.graalvm.python.jbang.benchmarks.StartupBenchmark \
+ *     --modes jvm,native --runs 20 --wheels /path/to/wheels --output startup.json
+ * </pre>
+ *
+ * The template's {@code //DEPS} line for this repository is replaced by the locally installed
+ * {@code org.graalvm.python:graalpy-jbang:1.0-SNAPSHOT}, so run {@code mvn install} first. With
+ * {@code --wheels}, pip only installs from the given directory, which together with
+ * {@code --offline} allows running without network access.
+ */
+public final class StartupBenchmark {
+    private static final String TRACE_PREFIX = "[graalpy-startup] ";
+    private static final String INTEGRATION_DEPS = "//DEPS https://github.com/timfel/graalpy-jbang";
+    private static final String LOCAL_INTEGRATION_DEPS = "//DEPS org.graalvm.python:graalpy-jbang:1.0-SNAPSHOT";
+    private static final Path TIME = Paths.get("/usr/bin/time");
+
+    /**
+     * The metrics of a run in the order they are reported, mapped to the trace names they come
+     * from. Times are in microseconds since the process was started, RSS in kilobytes.
+     */
+    private static final Map<String, String> METRICS = new LinkedHashMap<>();
+    static {
+        METRICS.put("timeToContextUs", "context");
+        METRICS.put("timeToImportSiteUs", "site");
+        METRICS.put("timeToFirstEvalUs", "eval");
+        METRICS.put("wallUs", "wall");
+        METRICS.put("peakRssKb", "maxrss");
+        METRICS.put("vfsResourceReads", "resourceReads");
+    }
+
+    private final Map<String, String> options = new HashMap<>();
+
+    private StartupBenchmark(String[] args) {
+        options.put("modes", "jvm");
+        options.put("runs", "10");
+        options.put("template", "src/test/resources/graalpy.java");
+        options.put("script", "import termcolor");
+        options.put("work", "target/startup");
+        options.put("jbang", "jbang");
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (name.equals("offline") || name.equals("skip-build")) {
+                options.put(name, "true");
+            } else if (i + 1 < args.length) {
+                options.put(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        new StartupBenchmark(args).run();
+    }
+
+    private void run() throws Exception {
+        Path work = Paths.get(options.get("work")).toAbsolutePath();
+        int runs = Integer.parseInt(options.get("runs"));
+        var results = new LinkedHashMap<String, List<Map<String, Long>>>();
+        for (String mode : options.get("modes").split(",")) {
+            Path out = work.resolve(mode);
+            List<String> app = switch (mode) {
+                // like jbang run, put everything on the class path rather than using the manifest
+                // of the portable jar, which the polyglot class path isolation does not see
+                case "jvm" -> List.of(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                                "-cp", out.resolve("graalpy.jar") + File.pathSeparator + out.resolve("lib").resolve("*"),
+                                "graalpy");
+                case "native" -> List.of(out.resolve("graalpy").toString());
+                default -> throw new IllegalArgumentException("Unknown mode " + mode + ", expected jvm or native");
+            };
+            if (!options.containsKey("skip-build")) {
+                build(work, mode, out);
+            }
+            var samples = new ArrayList<Map<String, Long>>();
+            for (int i = 0; i < runs; i++) {
+                samples.add(measure(app));
+                System.err.printf("%s run %d/%d: %s%n", mode, i + 1, runs, samples.get(i));
+            }
+            results.put(mode, samples);
+        }
+        String json = toJson(results);
+        if (options.containsKey("output")) {
+            Files.writeString(Paths.get(options.get("output")), json);
+        } else {
+            System.out.print(json);
+        }
+    }
+
+    /**
+     * Copies the template into the work directory, pointing it at the local integration, and
+     * exports it as a portable jar or a native executable.
+     */
+    private void build(Path work, String mode, Path out) throws IOException, InterruptedException {
+        Files.createDirectories(out);
+        Path script = work.resolve("graalpy.java");
+        var lines = new ArrayList<String>();
+        for (String line : Files.readAllLines(Paths.get(options.get("template")), StandardCharsets.UTF_8)) {
+            lines.add(line.startsWith(INTEGRATION_DEPS) ? LOCAL_INTEGRATION_DEPS : line);
+        }
+        Files.write(script, lines, StandardCharsets.UTF_8);
+
+        var cmd = new ArrayList<String>();
+        cmd.add(options.get("jbang"));
+        if (options.containsKey("offline")) {
+            cmd.add("--offline");
+        }
+        cmd.addAll(List.of("export", mode.equals("jvm") ? "portable" : "native", "--force", "--fresh"));
+        cmd.addAll(List.of("-O", out.resolve(mode.equals("jvm") ? "graalpy.jar" : "graalpy").toString()));
+        cmd.add(script.toString());
+        var pb = new ProcessBuilder(cmd).directory(work.toFile()).inheritIO();
+        if (options.containsKey("wheels")) {
+            pb.environment().put("PIP_NO_INDEX", "1");
+            pb.environment().put("PIP_FIND_LINKS", Paths.get(options.get("wheels")).toAbsolutePath().toString());
+        }
+        System.err.println("Building: " + String.join(" ", cmd));
+        int status = pb.start().waitFor();
+        if (status != 0) {
+            throw new IllegalStateException(String.format("Building the %s app failed with exit code %d", mode, status));
+        }
+    }
+
+    private Map<String, Long> measure(List<String> app) throws IOException, InterruptedException {
+        var cmd = new ArrayList<String>();
+        boolean useTime = Files.isExecutable(TIME);
+        if (useTime) {
+            cmd.addAll(List.of(TIME.toString(), "-f", TRACE_PREFIX + "maxrss %M"));
+        }
+        cmd.addAll(app);
+        cmd.add(options.get("script"));
+        var pb = new ProcessBuilder(cmd).redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        Instant now = Instant.now();
+        pb.environment().put("GRAALPY_STARTUP_TRACE", Long.toString(now.getEpochSecond() * 1_000_000 + now.getNano() / 1_000));
+        long start = System.nanoTime();
+        Process p = pb.start();
+        var rssSampler = useTime ? null : new RssSampler(p);
+
+        var trace = new HashMap<String, Long>();
+        var stderr = new StringBuilder();
+        try (var reader = new BufferedReader(new InputStreamReader(p.getErrorStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(TRACE_PREFIX)) {
+                    String[] parts = line.substring(TRACE_PREFIX.length()).trim().split(" ");
+                    trace.put(parts[0], Long.parseLong(parts[1]));
+                } else {
+                    stderr.append(line).append('\n');
+                }
+            }
+        }
+        int status = p.waitFor();
+        trace.put("wall", (System.nanoTime() - start) / 1_000);
+        if (rssSampler != null) {
+            rssSampler.join();
+            if (rssSampler.peakKb > 0) {
+                trace.put("maxrss", rssSampler.peakKb);
+            }
+        }
+        if (status != 0) {
+            throw new IllegalStateException(String.format("%s exited with %d:%n%s", String.join(" ", cmd), status, stderr));
+        }
+
+        var sample = new LinkedHashMap<String, Long>();
+        for (var metric : METRICS.entrySet()) {
+            sample.put(metric.getKey(), trace.get(metric.getValue()));
+        }
+        return sample;
+    }
+
+    /**
+     * Without {@code /usr/bin/time}, polls the high water mark of the resident set size from
+     * {@code /proc} while the process runs. Only available on Linux.
+     */
+    private static final class RssSampler extends Thread {
+        private final Path status;
+        private final Process process;
+        volatile long peakKb;
+
+        RssSampler(Process process) {
+            this.process = process;
+            this.status = Paths.get("/proc", Long.toString(process.pid()), "status");
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run() {
+            while (process.isAlive()) {
+                try {
+                    for (String line : Files.readAllLines(status)) {
+                        if (line.startsWith("VmHWM:")) {
+                            peakKb = Math.max(peakKb, Long.parseLong(line.replaceAll("[^0-9]", "")));
+                        }
+                    }
+                    Thread.sleep(10);
+                } catch (IOException | InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the samples and a summary for each metric. Keys always appear in the same order and
+     * missing values are {@code null}, so results of different runs can be diffed directly.
+     */
+    private String toJson(Map<String, List<Map<String, Long>>> results) {
+        var sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"script\": ").append(quote(options.get("script"))).append(",\n");
+        sb.append("  \"runs\": ").append(options.get("runs")).append(",\n");
+        sb.append("  \"modes\": {");
+        String modeSep = "\n";
+        for (var mode : results.entrySet()) {
+            sb.append(modeSep).append("    ").append(quote(mode.getKey())).append(": {\n");
+            sb.append("      \"summary\": {");
+            String metricSep = "\n";
+            for (String metric : METRICS.keySet()) {
+                long[] values = mode.getValue().stream().map(s -> s.get(metric)).filter(v -> v != null).mapToLong(Long::longValue).sorted().toArray();
+                sb.append(metricSep).append("        ").append(quote(metric)).append(": ");
+                if (values.length == 0) {
+                    sb.append("null");
+                } else {
+                    sb.append(String.format("{\"min\": %d, \"median\": %d, \"mean\": %d, \"max\": %d}",
+                                    values[0], values[values.length / 2], (long) Arrays.stream(values).average().getAsDouble(), values[values.length - 1]));
+                }
+                metricSep = ",\n";
+            }
+            sb.append("\n      },\n");
+            sb.append("      \"samples\": [");
+            String sampleSep = "\n";
+            for (var sample : mode.getValue()) {
+                sb.append(sampleSep).append("        {");
+                String valueSep = "";
+                for (var value : sample.entrySet()) {
+                    sb.append(valueSep).append(quote(value.getKey())).append(": ").append(value.getValue());
+                    valueSep = ", ";
+                }
+                sb.append("}");
+                sampleSep = ",\n";
+            }
+            sb.append("\n      ]\n    }");
+            modeSep = ",\n";
+        }
+        sb.append("\n  }\n}\n");
+        return sb.toString();
+    }
+
+    private static String quote(String s) {
+        var sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,73 @@
+package org.graalvm.python.jbang.benchmarks;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.function.Predicate;
+
+import org.graalvm.polyglot.io.FileSystem;
+
+/**
+ * Loads the {@code VirtualFileSystem} of the jbang template with a given {@link VfsTree} as its
+ * resources. The template keeps its index and entry cache in static fields, so every tree gets
+ * its own copy of the class.
+ */
+final class TemplateLoader extends URLClassLoader {
+    static final String VIRTUAL_FILE_SYSTEM = "VirtualFileSystem";
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private TemplateLoader(URL[] urls, ClassLoader parent) {
+        super(urls, parent);
+    }
+
+    static TemplateLoader create(VfsTree tree) throws Exception {
+        ClassLoader parent = TemplateLoader.class.getClassLoader();
+        URL template = Class.forName(VIRTUAL_FILE_SYSTEM, false, parent).getProtectionDomain().getCodeSource().getLocation();
+        return new TemplateLoader(new URL[]{tree.root.toUri().toURL(), template}, parent);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        if (!name.equals(VIRTUAL_FILE_SYSTEM) && !name.startsWith(VIRTUAL_FILE_SYSTEM + "$")) {
+            return super.loadClass(name, resolve);
+        }
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> c = findLoadedClass(name);
+            if (c == null) {
+                c = findClass(name);
+            }
+            if (resolve) {
+                resolveClass(c);
+            }
+            return c;
+        }
+    }
+
+    Class<?> virtualFileSystemClass() throws ClassNotFoundException {
+        return loadClass(VIRTUAL_FILE_SYSTEM);
+    }
+
+    /**
+     * Creates a filesystem mounted at the default mount point. Extraction is disabled, so no
+     * temporary directories are created.
+     */
+    FileSystem newVirtualFileSystem() throws Exception {
+        Constructor<?> ctor = virtualFileSystemClass().getConstructor(Predicate.class, String.class, String.class);
+        ctor.setAccessible(true);
+        return (FileSystem) ctor.newInstance(null, "/graalpy_vfs", "X:\\graalpy_vfs");
+    }
+
+    /**
+     * Returns the path at which {@code fs} serves the resource {@code resourcePath}.
+     */
+    static Path platformPath(FileSystem fs, String resourcePath) throws Exception {
+        Method m = fs.getClass().getMethod("resourcePathToPlatformPath", String.class);
+        m.setAccessible(true);
+        return fs.parsePath((String) m.invoke(fs, resourcePath));
+    }
+}
@@ -0,0 +1,119 @@
+package org.graalvm.python.jbang.benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A synthetic virtual filesystem tree laid out like the resources postBuild adds to a jar: a
+ * {@code vfs} directory with nested packages of small Python files and a {@code fileslist.txt}
+ * index in the same format. Trees are generated once per size and reused by later runs.
+ */
+final class VfsTree {
+    private static final String VFS_PREFIX = "/vfs";
+    private static final int FILES_PER_DIR = 16;
+    private static final int DIRS_PER_DIR = 4;
+    private static final int MIN_FILE_SIZE = 64;
+    private static final int MAX_FILE_SIZE = 4096;
+
+    /**
+     * The directory to put on the classpath, it contains the {@code vfs} folder.
+     */
+    final Path root;
+
+    /**
+     * Resource paths of all files, starting with {@code /vfs}.
+     */
+    final List<String> files;
+
+    /**
+     * Resource paths of all directories below {@code /vfs}, without trailing slash.
+     */
+    final List<String> dirs;
+
+    private VfsTree(Path root, List<String> files, List<String> dirs) {
+        this.root = root;
+        this.files = files;
+        this.dirs = dirs;
+    }
+
+    /**
+     * Returns the tree with (about) {@code entries} files and directories, generating it below the
+     * directory given by the {@code vfs.trees} system property if it does not exist yet.
+     */
+    static VfsTree get(int entries) throws IOException {
+        Path root = Paths.get(System.getProperty("vfs.trees", "target/vfs-trees")).resolve(Integer.toString(entries)).toAbsolutePath();
+        Path filesList = root.resolve("vfs").resolve("fileslist.txt");
+        if (!Files.exists(filesList)) {
+            generate(root, entries);
+        }
+        var files = new ArrayList<String>();
+        var dirs = new ArrayList<String>();
+        for (String line : Files.readAllLines(filesList, StandardCharsets.UTF_8)) {
+            if (line.endsWith("/")) {
+                if (!line.equals(VFS_PREFIX + "/")) {
+                    dirs.add(line.substring(0, line.length() - 1));
+                }
+            } else {
+                int tab = line.indexOf('\t');
+                files.add(tab < 0 ? line : line.substring(0, tab));
+            }
+        }
+        return new VfsTree(root, Collections.unmodifiableList(files), Collections.unmodifiableList(dirs));
+    }
+
+    private static void generate(Path root, int entries) throws IOException {
+        System.out.printf("Generating a virtual filesystem tree with %d entries in %s%n", entries, root);
+        var random = new Random(entries);
+        var index = new ArrayList<String>();
+        var pending = new ArrayDeque<String>();
+        pending.add(VFS_PREFIX);
+        index.add(VFS_PREFIX + "/");
+        int count = 1;
+        int next = 0;
+        Path tmp = root.resolveSibling(root.getFileName() + ".tmp");
+        while (count < entries && !pending.isEmpty()) {
+            String dir = pending.poll();
+            Path dirPath = resolve(tmp, dir);
+            Files.createDirectories(dirPath);
+            for (int i = 0; i < FILES_PER_DIR && count < entries; i++, count++) {
+                String name = i == 0 ? "__init__.py" : "module_" + next++ + ".py";
+                // sizes are log-uniformly distributed like the sources of typical packages
+                int size = (int) Math.exp(Math.log(MIN_FILE_SIZE) + random.nextDouble() * (Math.log(MAX_FILE_SIZE) - Math.log(MIN_FILE_SIZE)));
+                byte[] content = new byte[size];
+                for (int j = 0; j < size; j++) {
+                    content[j] = (byte) (j % 80 == 79 ? '\n' : ' ' + random.nextInt(95));
+                }
+                Files.write(dirPath.resolve(name), content);
+                index.add(dir + "/" + name + "\t" + size);
+            }
+            for (int i = 0; i < DIRS_PER_DIR && count < entries; i++, count++) {
+                String sub = dir + "/pkg_" + next++;
+                Files.createDirectories(resolve(tmp, sub));
+                index.add(sub + "/");
+                pending.add(sub);
+            }
+        }
+        Collections.sort(index);
+        try (Writer wr = Files.newBufferedWriter(resolve(tmp, VFS_PREFIX).resolve("fileslist.txt"), StandardCharsets.UTF_8)) {
+            for (String line : index) {
+                wr.write(line);
+                wr.write("\n");
+            }
+        }
+        Files.createDirectories(root.getParent());
+        Files.move(tmp, root);
+    }
+
+    private static Path resolve(Path root, String resourcePath) {
+        return root.resolve(resourcePath.substring(1));
+    }
+}
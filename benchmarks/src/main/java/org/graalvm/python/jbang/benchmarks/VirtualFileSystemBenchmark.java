@@ -0,0 +1,258 @@
+package org.graalvm.python.jbang.benchmarks;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.graalvm.polyglot.io.FileSystem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the hot paths of the template's {@code VirtualFileSystem} on synthetic trees. Run with
+ * {@code -prof gc} to also report the allocation rate of each operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+// the shaded benchmarks jar defeats the polyglot class path isolation
+@Fork(value = 1, jvmArgsAppend = "-Dpolyglotimpl.DisableClassPathIsolation=true")
+public class VirtualFileSystemBenchmark {
+    private static final int SAMPLE_SIZE = 1024;
+    private static final Set<AccessMode> EXISTS = Collections.emptySet();
+    private static final Set<OpenOption> READ = Set.of(StandardOpenOption.READ);
+    private static final String STAT_ATTRIBUTES = "unix:mode,ino,dev,nlink,uid,gid,size,lastAccessTime,lastModifiedTime,ctime";
+    private static final int COLD_THREADS = 4;
+
+    @Param({"10000", "100000", "500000"})
+    public int entries;
+
+    FileSystem fs;
+    Path[] files;
+    Path[] dirs;
+    Path[] missing;
+    Method initFilesAndDirsList;
+
+    /**
+     * Position in the sampled paths, separate for each benchmark thread.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+
+        int next() {
+            return next++ & (SAMPLE_SIZE - 1);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        VfsTree tree = VfsTree.get(entries);
+        TemplateLoader loader = TemplateLoader.create(tree);
+        fs = loader.newVirtualFileSystem();
+        initFilesAndDirsList = loader.virtualFileSystemClass().getDeclaredMethod("initFilesAndDirsList");
+        initFilesAndDirsList.setAccessible(true);
+
+        Random random = new Random(42);
+        files = sample(tree.files, random);
+        dirs = sample(tree.dirs, random);
+        missing = new Path[SAMPLE_SIZE];
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            missing[i] = dirs[i].resolve("missing_" + i + ".py");
+        }
+
+        // populate the entry cache, so concurrent benchmarks only read it
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            readFile(files[i], buffer);
+            fs.readAttributes(files[i], STAT_ATTRIBUTES);
+            fs.readAttributes(dirs[i], STAT_ATTRIBUTES);
+            try (DirectoryStream<Path> ds = fs.newDirectoryStream(dirs[i], p -> true)) {
+                ds.forEach(p -> {});
+            }
+        }
+    }
+
+    private Path[] sample(List<String> resourcePaths, Random random) throws Exception {
+        var shuffled = new ArrayList<>(resourcePaths);
+        Collections.shuffle(shuffled, random);
+        Path[] paths = new Path[SAMPLE_SIZE];
+        for (int i = 0; i < SAMPLE_SIZE; i++) {
+            paths[i] = TemplateLoader.platformPath(fs, shuffled.get(i % shuffled.size()));
+        }
+        return paths;
+    }
+
+    private int readFile(Path path, ByteBuffer buffer) throws IOException {
+        int total = 0;
+        try (SeekableByteChannel ch = fs.newByteChannel(path, READ)) {
+            int n;
+            buffer.clear();
+            while ((n = ch.read(buffer)) > 0) {
+                total += n;
+                buffer.clear();
+            }
+        }
+        return total;
+    }
+
+    @Benchmark
+    public void lookupHit(Cursor cursor) throws IOException {
+        fs.checkAccess(files[cursor.next()], EXISTS);
+    }
+
+    @Benchmark
+    public boolean lookupMiss(Cursor cursor) {
+        try {
+            fs.checkAccess(missing[cursor.next()], EXISTS);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Benchmark
+    public void listDirectory(Cursor cursor, Blackhole bh) throws IOException {
+        try (DirectoryStream<Path> ds = fs.newDirectoryStream(dirs[cursor.next()], p -> true)) {
+            for (Path p : ds) {
+                bh.consume(p);
+            }
+        }
+    }
+
+    @Benchmark
+    public int readFile(Cursor cursor, Buffer buffer) throws IOException {
+        return readFile(files[cursor.next()], buffer.bytes);
+    }
+
+    @Benchmark
+    public Object stat(Cursor cursor) throws IOException {
+        return fs.readAttributes(files[cursor.next()], STAT_ATTRIBUTES);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void initFilesAndDirsList() throws Exception {
+        initFilesAndDirsList.invoke(null);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void concurrentLookupHit(Cursor cursor) throws IOException {
+        fs.checkAccess(files[cursor.next()], EXISTS);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int concurrentReadFile(Cursor cursor, Buffer buffer) throws IOException {
+        return readFile(files[cursor.next()], buffer.bytes);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object concurrentStat(Cursor cursor) throws IOException {
+        return fs.readAttributes(files[cursor.next()], STAT_ATTRIBUTES);
+    }
+
+    /**
+     * Looks up all sampled files from {@value #COLD_THREADS} threads at once right after the
+     * entry cache and the index were dropped, like the first imports of server contexts that
+     * start together. Each thread starts at a different offset, so they race on reading the
+     * index and on creating the same entries.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void concurrentColdLookup(ColdCaches cold) throws Exception {
+        var start = new CountDownLatch(1);
+        var results = new ArrayList<Future<?>>();
+        for (int t = 0; t < COLD_THREADS; t++) {
+            int offset = t * SAMPLE_SIZE / COLD_THREADS;
+            results.add(cold.executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < SAMPLE_SIZE; i++) {
+                    fs.checkAccess(files[(offset + i) & (SAMPLE_SIZE - 1)], EXISTS);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> f : results) {
+            f.get();
+        }
+    }
+
+    /**
+     * Drops the static caches of the template before each invocation of a cold benchmark.
+     */
+    @State(Scope.Benchmark)
+    public static class ColdCaches {
+        ExecutorService executor;
+        Map<?, ?> entries;
+        Field index;
+
+        @Setup(Level.Trial)
+        public void setup(VirtualFileSystemBenchmark benchmark) throws Exception {
+            executor = Executors.newFixedThreadPool(COLD_THREADS);
+            Class<?> vfsClass = benchmark.fs.getClass();
+            Field entriesField = vfsClass.getDeclaredField("VFS_ENTRIES");
+            entriesField.setAccessible(true);
+            entries = (Map<?, ?>) entriesField.get(null);
+            index = vfsClass.getDeclaredField("index");
+            index.setAccessible(true);
+        }
+
+        @Setup(Level.Invocation)
+        public void drop() throws Exception {
+            entries.clear();
+            index.set(null, null);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A read buffer that is large enough for any generated file.
+     */
+    @State(Scope.Thread)
+    public static class Buffer {
+        final ByteBuffer bytes = ByteBuffer.allocate(64 * 1024);
+    }
+}
@@ -3,10 +3,13 @@ package org.graalvm.python.jbang;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.PosixFilePermission;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
@@ -14,13 +17,26 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.HashMap;
 import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class JBangIntegration {
     private static final String PIP = "//PIP";
     private static final String PIP_DROP = "//PIP_DROP";
+    private static final String GRAALPY_ENGINE_CACHE = "//GRAALPY_ENGINE_CACHE";
+    private static final String DEFAULT_ENGINE_CACHE_BYTES = "1073741824";
+    private static final String BUILD_HASH = "buildhash.txt";
+    private static final String GRAALPY_PGO = "//GRAALPY_PGO";
+    private static final String GRAALPY_VFS_OVERLAY = "GRAALPY_VFS_OVERLAY";
+    private static final String SITE_CONFIG = "siteconfig.txt";
+    private static final String GRAALPY_IMPORT_BUDGET = "//GRAALPY_IMPORT_BUDGET";
+    private static final int IMPORT_REPORT_LINES = 25;
+    private static final String GRAALPY_EMBED_HOME = "//GRAALPY_EMBED_HOME";
     private static final String PYTHON_LANGUAGE = "python-language";
     private static final String PYTHON_RESOURCES = "python-resources";
     private static final String PYTHON_LAUNCHER = "python-launcher";
@@ -29,6 +45,15 @@ public class JBangIntegration {
     private static final String LAUNCHER = IS_WINDOWS ? "graalpy.exe" : "graalpy.sh";
     private static final String BIN_DIR = IS_WINDOWS ? "Scripts" : "bin";
     private static final String EXE_SUFFIX = IS_WINDOWS ? ".exe" : "";
+    private static final String MODULE_INDEX = "modulesindex.txt";
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final List<String> EXTENSION_SUFFIXES = List.of(".so", ".dylib", ".pyd", ".dll");
+
+    /**
+     * Receives the name and duration in nanoseconds of each stage of {@link #postBuild}, so the
+     * build can be measured without jbang.
+     */
+    static BiConsumer<String, Long> stageListener;
 
     /**
     *
@@ -52,11 +77,20 @@ public class JBangIntegration {
         Path venv = vfs.resolve("venv");
         Path home = vfs.resolve("home");
 
+        // the template serves the overlay directory over the vfs, so packages installed there need
+        // not be packaged, and the venv is reused by the next build
+        String overlay = System.getenv(GRAALPY_VFS_OVERLAY);
+        if (overlay != null) {
+            venv = Paths.get(overlay).resolve("venv");
+            System.out.println(String.format("Installing packages into %s, set %s to the same directory when running", venv, GRAALPY_VFS_OVERLAY));
+        }
+
         try {
             Files.createDirectories(vfs);
         } catch (IOException e) {
             throw new Error(e);
         }
+        long stageStart = System.nanoTime();
 
         for (String comment : comments) {
             if (comment.startsWith(PIP)) {
@@ -64,6 +98,24 @@ public class JBangIntegration {
                 runPip(venv, "install", comment.substring(PIP.length()).trim());
             }
         }
+        stageStart = endStage("pip", stageStart);
+
+        for (String comment : comments) {
+            if (comment.startsWith(GRAALPY_IMPORT_BUDGET)) {
+                var args = splitArguments(comment.substring(GRAALPY_IMPORT_BUDGET.length()));
+                if (args.isEmpty() || args.size() > 2) {
+                    throw new IllegalArgumentException(GRAALPY_IMPORT_BUDGET + " expects a module and optionally a budget in milliseconds");
+                }
+                String budget = args.size() > 1 ? args.get(1) : "";
+                if (!budget.isEmpty()) {
+                    Double.parseDouble(budget);
+                }
+                // before the drop stage, which also cleans a venv that is first created here
+                ensureVenv(venv, dependencies);
+                reportImportTime(venv, args.get(0), budget);
+            }
+        }
+        stageStart = endStage("importBudget", stageStart);
         var dropFolders = new ArrayList<String>();
         dropFolders.add("pip");
         dropFolders.add("setuptools");
@@ -72,7 +124,8 @@ public class JBangIntegration {
                 dropFolders.add(comment.substring(PIP_DROP.length()).trim());
             }
         }
-        if (Files.exists(venv)) {
+        // nothing is packaged from the overlay venv, and the next build still needs its pip
+        if (overlay == null && Files.exists(venv)) {
             try {
                 Path libFolder = Files.list(venv.resolve("lib"))
                     .filter(p -> p.getFileName().toString().startsWith("python3"))
@@ -93,14 +146,52 @@ public class JBangIntegration {
                 throw new RuntimeException(e);
             }
         }
+        stageStart = endStage("pipDrop", stageStart);
 
-        if (nativeImage) {
-            // include python stdlib in image
+        String engineCacheBytes = null;
+        for (String comment : comments) {
+            if (comment.startsWith(GRAALPY_ENGINE_CACHE)) {
+                String size = comment.substring(GRAALPY_ENGINE_CACHE.length()).trim();
+                engineCacheBytes = size.isEmpty() ? DEFAULT_ENGINE_CACHE_BYTES : size;
+            }
+        }
+        if (engineCacheBytes != null && !nativeImage) {
+            System.out.println("Ignoring " + GRAALPY_ENGINE_CACHE + ", engine caching is only supported for native images");
+            engineCacheBytes = null;
+        }
+        List<String> pgoTraining = null;
+        for (String comment : comments) {
+            if (comment.startsWith(GRAALPY_PGO)) {
+                pgoTraining = splitArguments(comment.substring(GRAALPY_PGO.length()));
+                if (pgoTraining.isEmpty()) {
+                    throw new IllegalArgumentException(GRAALPY_PGO + " needs the main class of the training run");
+                }
+            }
+        }
+        if (pgoTraining != null && !nativeImage) {
+            System.out.println("Ignoring " + GRAALPY_PGO + ", profile-guided optimization is only supported for native images");
+            pgoTraining = null;
+        }
+
+        // native images always serve the home from the vfs, JVM builds can opt in, so the home
+        // is not extracted from the python-resources artifact on the first run
+        boolean embedHome = nativeImage || comments.stream().anyMatch(c -> c.startsWith(GRAALPY_EMBED_HOME));
+        if (embedHome) {
+            // include python stdlib in the vfs
             runGraalPy(dependencies, "-c", String.format("__import__('shutil').copytree(__graalpython__.home, '%s', dirs_exist_ok=True)", home.toAbsolutePath().toString()));
-            var niConfig = temporaryJar.resolve("META-INF").resolve("native-image");
+        }
+
+        var niArgs = new ArrayList<String>();
+        if (nativeImage) {
+            niArgs.add("-H:-CopyLanguageResources");
+            if (engineCacheBytes != null) {
+                // reserve space in the image to map the stored engine state at runtime
+                niArgs.add("-H:+AuxiliaryEngineCache");
+                niArgs.add("-H:ReservedAuxiliaryImageBytes=" + engineCacheBytes);
+            }
             try {
-                Files.createDirectories(niConfig);
-                Files.writeString(niConfig.resolve("native-image.properties"), "Args = -H:-CopyLanguageResources");
+                writeNativeImageProperties(temporaryJar, niArgs);
+                var niConfig = temporaryJar.resolve("META-INF").resolve("native-image");
                 Files.writeString(niConfig.resolve("resource-config.json"), """
                                 {
                                   "resources": {
@@ -110,19 +201,199 @@ public class JBangIntegration {
                                   }
                                 }
                                 """);
+                // PythonBuffers in the template reads the native address of direct buffers
+                Files.writeString(niConfig.resolve("reflect-config.json"), """
+                                [
+                                  {
+                                    "name": "java.nio.Buffer",
+                                    "fields": [{"name": "address", "allowUnsafeAccess": true}]
+                                  },
+                                  {
+                                    "name": "sun.misc.Unsafe",
+                                    "fields": [{"name": "theUnsafe"}],
+                                    "methods": [
+                                      {"name": "objectFieldOffset", "parameterTypes": ["java.lang.reflect.Field"]},
+                                      {"name": "getLong", "parameterTypes": ["java.lang.Object", "long"]}
+                                    ]
+                                  }
+                                ]
+                                """);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         }
+        stageStart = endStage("home", stageStart);
 
+        if (overlay == null && Files.exists(venv)) {
+            generateSiteConfig(venv, vfs);
+        }
+        stageStart = endStage("siteConfig", stageStart);
+        generateModuleIndex(vfs);
+        stageStart = endStage("moduleIndex", stageStart);
         generateFilelist(vfs);
+        stageStart = endStage("filelist", stageStart);
+
+        Path profile = null;
+        if (pgoTraining != null) {
+            profile = trainProfile(temporaryJar, dependencies, pgoTraining);
+            niArgs.add("--pgo=" + profile.toAbsolutePath());
+            try {
+                writeNativeImageProperties(temporaryJar, niArgs);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        stageStart = endStage("pgo", stageStart);
+
+        if (engineCacheBytes != null) {
+            generateBuildHash(temporaryJar, dependencies, profile);
+        }
+        endStage("buildHash", stageStart);
 
         return new HashMap<>();
     }
 
-    private static void generateFilelist(Path vfs) {
+    private static long endStage(String stage, long start) {
+        long now = System.nanoTime();
+        if (stageListener != null) {
+            stageListener.accept(stage, now - start);
+        }
+        return now;
+    }
+
+    private static void writeNativeImageProperties(Path temporaryJar, List<String> args) throws IOException {
+        var niConfig = temporaryJar.resolve("META-INF").resolve("native-image");
+        Files.createDirectories(niConfig);
+        Files.writeString(niConfig.resolve("native-image.properties"), "Args = " + String.join(" ", args));
+    }
+
+    /**
+     * Builds an instrumented image of the application with the configuration written so far, runs
+     * the main class given to {@code //GRAALPY_PGO} with its arguments as the training workload
+     * and returns the collected profile for the final build. Profile-guided optimization needs a
+     * native-image from Oracle GraalVM, it is looked up in GRAALVM_HOME or the running JDK.
+     *
+     * The profile is kept next to the temporary jar rather than in it, so it is not packaged.
+     */
+    private static Path trainProfile(Path temporaryJar, List<Entry<String, Path>> dependencies, List<String> training) {
+        Path pgoDir = temporaryJar.toAbsolutePath().resolveSibling(temporaryJar.getFileName() + "-pgo");
+        Path instrumented = pgoDir.resolve("instrumented" + EXE_SUFFIX);
+        Path profile = pgoDir.resolve("default.iprof");
+        var classpath = new ArrayList<String>();
+        classpath.add(temporaryJar.toAbsolutePath().toString());
+        for (var r : resolveProjectDependencies(dependencies)) {
+            classpath.add(r.toAbsolutePath().toString());
+        }
+        try {
+            Files.createDirectories(pgoDir);
+            Files.deleteIfExists(profile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+
+        var build = new ArrayList<String>();
+        build.add(getNativeImage().toString());
+        build.add("--pgo-instrument");
+        build.add("-cp");
+        build.add(String.join(File.pathSeparator, classpath));
+        build.add("-o");
+        build.add(pgoDir.resolve("instrumented").toString());
+        build.add(training.get(0));
+        runChecked(build, pgoDir);
+
+        var run = new ArrayList<String>();
+        run.add(instrumented.toString());
+        run.add("-XX:ProfilesDumpFile=" + profile);
+        run.addAll(training.subList(1, training.size()));
+        runChecked(run, pgoDir);
+        if (!Files.isRegularFile(profile)) {
+            throw new RuntimeException("The training run did not write a profile to " + profile);
+        }
+        return profile;
+    }
+
+    /**
+     * Splits a comment into whitespace separated arguments, where single or double quotes group
+     * an argument that contains whitespace.
+     */
+    private static List<String> splitArguments(String s) {
+        var args = new ArrayList<String>();
+        var current = new StringBuilder();
+        boolean inArgument = false;
+        char quote = 0;
+        for (char c : s.toCharArray()) {
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+                inArgument = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inArgument) {
+                    args.add(current.toString());
+                    current.setLength(0);
+                    inArgument = false;
+                }
+            } else {
+                current.append(c);
+                inArgument = true;
+            }
+        }
+        if (quote != 0) {
+            throw new IllegalArgumentException("Unterminated quote in " + s);
+        }
+        if (inArgument) {
+            args.add(current.toString());
+        }
+        return args;
+    }
+
+    private static Path getNativeImage() {
+        var graalvmHome = System.getenv("GRAALVM_HOME");
+        var home = graalvmHome != null ? graalvmHome : System.getProperty("java.home");
+        return Paths.get(home, "bin", IS_WINDOWS ? "native-image.cmd" : "native-image");
+    }
+
+    private static void runChecked(List<String> cmd, Path workdir) {
+        System.out.println(String.join(" ", cmd));
+        var pb = new ProcessBuilder(cmd).directory(workdir.toFile()).inheritIO();
+        try {
+            int status = pb.start().waitFor();
+            if (status != 0) {
+                throw new RuntimeException(String.format("%s failed with exit code %d", cmd.get(0), status));
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes a Python script the build runs to a temporary file that is deleted when the build
+     * exits.
+     */
+    private static File writeTempScript(String prefix, String script) {
+        File tmp;
+        try {
+            tmp = File.createTempFile(prefix, ".py");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        tmp.deleteOnExit();
+        try (var wr = new FileWriter(tmp)) {
+            wr.write(script);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return tmp;
+    }
+
+    static void generateFilelist(Path vfs) {
         Path filesList = vfs.resolve("fileslist.txt");
         var ret = new HashSet<String>();
+        var sizes = new HashMap<String, Long>();
         String rootPath = makeDirPath(vfs.toAbsolutePath());
         int rootEndIdx = rootPath.lastIndexOf(File.separator, rootPath.lastIndexOf(File.separator) - 1);
         ret.add(rootPath.substring(rootEndIdx));
@@ -132,7 +403,9 @@ public class JBangIntegration {
                     String dirPath = makeDirPath(p.toAbsolutePath());
                     ret.add(dirPath.substring(rootEndIdx));
                 } else if (Files.isRegularFile(p)) {
-                    ret.add(p.toAbsolutePath().toString().substring(rootEndIdx));
+                    String filePath = p.toAbsolutePath().toString().substring(rootEndIdx);
+                    ret.add(filePath);
+                    sizes.put(filePath, p.toFile().length());
                 }
             });
         } catch (IOException e) {
@@ -142,17 +415,363 @@ public class JBangIntegration {
         Arrays.sort(a);
         try (var wr = new FileWriter(filesList.toFile())) {
             for (String f : a) {
+                Long size = sizes.get(f);
                 if (f.charAt(0) == '\\') {
                     f = f.replace("\\", "/");
                 }
                 wr.write(f);
+                if (size != null) {
+                    // the runtime answers stat calls from the index without loading the file
+                    wr.write("\t");
+                    wr.write(Long.toString(size));
+                }
+                wr.write("\n");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Imports {@code module} in the venv and prints how long the import of it and of each module it
+     * pulls in took, and how many bytes of Python sources each top-level package contributed, which
+     * the app reads from the vfs when it starts. Times are measured with the interpreter of the
+     * build, so they are most useful compared to earlier builds. If a budget is given and the import
+     * takes longer, the build fails.
+     */
+    static void reportImportTime(Path venv, String module, String budgetMillis) {
+        var script = """
+                        import importlib, os, sys, time
+
+                        module, budget, lines = sys.argv[1], sys.argv[2], int(sys.argv[3])
+                        times = {}
+                        find_times = {}
+                        stack = []
+
+                        def timed(exec_module):
+                            def exec_timed(m):
+                                name = m.__name__
+                                start = time.perf_counter()
+                                stack.append(0.0)
+                                try:
+                                    exec_module(m)
+                                finally:
+                                    children = stack.pop()
+                                    elapsed = time.perf_counter() - start + find_times.pop(name, 0.0)
+                                    times[name] = (elapsed, elapsed - children)
+                                    if stack:
+                                        stack[-1] += elapsed
+                            exec_timed.timed = True
+                            return exec_timed
+
+                        class TimingFinder:
+                            # finds modules with the other finders and times the execution of their loaders
+                            @classmethod
+                            def find_spec(cls, name, path=None, target=None):
+                                start = time.perf_counter()
+                                spec = None
+                                for finder in sys.meta_path:
+                                    if finder is not cls and hasattr(finder, 'find_spec'):
+                                        spec = finder.find_spec(name, path, target)
+                                        if spec is not None:
+                                            break
+                                find_times[name] = time.perf_counter() - start
+                                loader = spec.loader if spec else None
+                                # loaders that are classes serve many modules and are not worth timing
+                                if loader is not None and not isinstance(loader, type) and hasattr(loader, 'exec_module'):
+                                    if not getattr(loader.exec_module, 'timed', False):
+                                        loader.exec_module = timed(loader.exec_module)
+                                return spec
+
+                        before = set(sys.modules)
+                        sys.meta_path.insert(0, TimingFinder)
+                        start = time.perf_counter()
+                        importlib.import_module(module)
+                        total = (time.perf_counter() - start) * 1000
+                        sys.meta_path.remove(TimingFinder)
+
+                        sizes = {}
+                        for name in set(sys.modules) - before:
+                            origin = getattr(getattr(sys.modules[name], '__spec__', None), 'origin', None)
+                            if origin and os.path.isfile(origin):
+                                package = name.partition('.')[0]
+                                sizes[package] = sizes.get(package, 0) + os.path.getsize(origin)
+
+                        print(f'Import time of {module}: {total:.1f} ms' + (f' (budget {budget} ms)' if budget else ''))
+                        print(f'{"cumulative ms":>14} {"self ms":>10}  module')
+                        for name, (cumulative, own) in sorted(times.items(), key=lambda e: -e[1][0])[:lines]:
+                            print(f'{cumulative * 1000:14.1f} {own * 1000:10.1f}  {name}')
+                        print(f'{"source bytes":>14}  package')
+                        for package, size in sorted(sizes.items(), key=lambda e: -e[1])[:lines]:
+                            print(f'{size:14d}  {package}')
+                        if budget and total > float(budget):
+                            sys.exit(f'Importing {module} took {total:.1f} ms, more than the budget of {budget} ms')
+                        """;
+        File tmp = writeTempScript("import_time", script);
+        Path graalpy = venv.toAbsolutePath().resolve(BIN_DIR).resolve("graalpy" + EXE_SUFFIX);
+        runChecked(List.of(graalpy.toString(), tmp.getAbsolutePath(), module, budgetMillis, Integer.toString(IMPORT_REPORT_LINES)), venv.toAbsolutePath());
+    }
+
+    /**
+     * Runs the site-packages processing of the venv once, so the template need not scan
+     * site-packages and read .pth files at every start. The result has a line "path\tdir" for
+     * every sys.path entry site would add, relative to the venv, and "exec\tline" for each import
+     * line of a .pth file, in the order site processes them. A final "customize\tsitecustomize"
+     * line is written if such a module exists. If the venv includes the system site-packages or a
+     * .pth file points outside of the venv, no file is written and the template runs site normally.
+     */
+    static void generateSiteConfig(Path venv, Path vfs) {
+        Path siteConfig = vfs.resolve(SITE_CONFIG);
+        try {
+            Files.deleteIfExists(siteConfig);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        var script = """
+                        import importlib.util, os, site, sys
+                        prefix = sys.prefix
+                        cfg = {}
+                        with open(os.path.join(prefix, 'pyvenv.cfg')) as f:
+                            for line in f:
+                                key, sep, value = line.partition('=')
+                                if sep:
+                                    cfg[key.strip().lower()] = value.strip().lower()
+                        if cfg.get('include-system-site-packages') == 'true':
+                            sys.exit('system site-packages are not embedded')
+
+                        def rel(path):
+                            r = os.path.relpath(path, prefix)
+                            if r == os.pardir or r.startswith(os.pardir + os.sep) or os.path.isabs(r):
+                                sys.exit(path + ' is outside of the venv')
+                            return r.replace(os.sep, '/')
+
+                        # the same steps as site.addsitedir
+                        entries = []
+                        known = set()
+                        for sitedir in site.getsitepackages([prefix]):
+                            if not os.path.isdir(sitedir) or os.path.normcase(sitedir) in known:
+                                continue
+                            known.add(os.path.normcase(sitedir))
+                            entries.append('path\\t' + rel(sitedir))
+                            for name in sorted(os.listdir(sitedir)):
+                                if not name.endswith('.pth') or name.startswith('.'):
+                                    continue
+                                with open(os.path.join(sitedir, name), encoding='locale') as f:
+                                    for line in f:
+                                        if line.startswith('#') or not line.strip():
+                                            continue
+                                        if line.startswith(('import ', 'import\\t')):
+                                            entries.append('exec\\t' + line.rstrip('\\n'))
+                                            continue
+                                        path = os.path.abspath(os.path.join(sitedir, line.rstrip()))
+                                        if os.path.normcase(path) not in known and os.path.exists(path):
+                                            known.add(os.path.normcase(path))
+                                            entries.append('path\\t' + rel(path))
+                        spec = importlib.util.find_spec('sitecustomize')
+                        if spec is not None:
+                            entries.append('customize\\tsitecustomize')
+                        with open(sys.argv[1], 'w') as f:
+                            f.write(''.join(e + '\\n' for e in entries))
+                        """;
+        File tmp = writeTempScript("site_config", script);
+        runVenvBin(venv, "graalpy", List.of(tmp.getAbsolutePath(), siteConfig.toAbsolutePath().toString()));
+        if (!Files.exists(siteConfig)) {
+            System.out.println("Could not precompute the site configuration, site-packages will be processed at startup");
+        }
+    }
+
+    /**
+     * Writes a hash of everything the image is built from, which the template uses to name engine
+     * caches, so that a cache stored by one build is never loaded by another. It covers the classes,
+     * the vfs and the native-image configuration in the temporary jar, the coordinates of the
+     * dependencies, which include the GraalPy version, and the profile of a PGO build. Because the
+     * configuration can change until the end of postBuild, this runs last.
+     */
+    private static void generateBuildHash(Path temporaryJar, List<Entry<String, Path>> dependencies, Path profile) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        Path hashFile = temporaryJar.resolve("vfs").resolve(BUILD_HASH);
+        try (var s = Files.walk(temporaryJar)) {
+            for (Path p : (Iterable<Path>) s.filter(Files::isRegularFile).filter(p -> !p.equals(hashFile)).sorted()::iterator) {
+                digest.update(toResourcePath(temporaryJar.relativize(p)).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(Files.readAllBytes(p));
+            }
+            for (String coordinates : dependencies.stream().map(Entry::getKey).sorted().toList()) {
+                digest.update(coordinates.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            if (profile != null) {
+                digest.update(Files.readAllBytes(profile));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        var hash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hash.append(String.format("%02x", b));
+        }
+        try {
+            Files.writeString(hashFile, hash);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes an index from module names to their source files in the home stdlib, the GraalPy
+     * modules and the venv site-packages, so the template can import them without searching
+     * sys.path. Only regular packages and pure Python modules are indexed, names that are shadowed
+     * by extension modules or by an earlier root are left to the normal path based finders.
+     *
+     * Without an embedded home, the stdlib of the GraalPy runtime comes first on sys.path and is not
+     * in the vfs, so nothing after it could be served from the index and none is written.
+     *
+     * The index has a line "@root" for each sys.path entry, relative to the vfs, followed by lines
+     * "module\tpath" with paths relative to that root.
+     */
+    static void generateModuleIndex(Path vfs) {
+        Path home = vfs.resolve("home");
+        if (!Files.isDirectory(home)) {
+            return;
+        }
+        var roots = new ArrayList<Path>();
+        try {
+            // same order as on sys.path, the first root that provides a module wins
+            roots.addAll(findLibFolders(home, "python3"));
+            for (Path lib : findLibFolders(home, "graalpy")) {
+                roots.add(lib.resolve("modules"));
+            }
+            for (Path lib : findLibFolders(vfs.resolve("venv"), "python3")) {
+                roots.add(lib.resolve("site-packages"));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        var blocked = new HashSet<String>();
+        var index = new ArrayList<Map.Entry<Path, Map<String, String>>>();
+        for (Path root : roots) {
+            try {
+                var modules = indexModules(root, blocked);
+                if (!modules.isEmpty()) {
+                    index.add(Map.entry(root, modules));
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        if (index.isEmpty()) {
+            return;
+        }
+        try (var wr = new FileWriter(vfs.resolve(MODULE_INDEX).toFile())) {
+            for (var root : index) {
+                wr.write("@");
+                wr.write(toResourcePath(vfs.relativize(root.getKey())));
                 wr.write("\n");
+                for (var e : root.getValue().entrySet()) {
+                    wr.write(e.getKey());
+                    wr.write("\t");
+                    wr.write(e.getValue());
+                    wr.write("\n");
+                }
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
+    private static String toResourcePath(Path relativePath) {
+        return relativePath.toString().replace(File.separatorChar, '/');
+    }
+
+    private static List<Path> findLibFolders(Path prefix, String namePrefix) throws IOException {
+        Path lib = prefix.resolve("lib");
+        if (!Files.isDirectory(lib)) {
+            return List.of();
+        }
+        try (var s = Files.list(lib)) {
+            return s.filter(p -> p.getFileName().toString().startsWith(namePrefix) && Files.isDirectory(p))
+                .sorted()
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static Map<String, String> indexModules(Path root, Set<String> blocked) throws IOException {
+        var index = new TreeMap<String, String>();
+        if (!Files.isDirectory(root)) {
+            return index;
+        }
+        var modules = new HashMap<String, String>();
+        var packages = new HashSet<String>();
+        var extensions = new HashSet<String>();
+        try (var s = Files.walk(root)) {
+            for (Path p : (Iterable<Path>) s::iterator) {
+                String fileName = p.getFileName().toString();
+                boolean isSource = fileName.endsWith(".py");
+                boolean isExtension = EXTENSION_SUFFIXES.stream().anyMatch(fileName::endsWith);
+                if (!(isSource || isExtension) || !Files.isRegularFile(p)) {
+                    continue;
+                }
+                String packageName = getPackageName(root, p.getParent());
+                if (packageName == null) {
+                    continue;
+                }
+                String stem = fileName.substring(0, isSource ? fileName.length() - 3 : fileName.indexOf('.'));
+                boolean isInit = isSource && stem.equals("__init__");
+                if (!isInit && !IDENTIFIER.matcher(stem).matches()) {
+                    continue;
+                }
+                String name = isInit ? packageName : packageName.isEmpty() ? stem : packageName + "." + stem;
+                if (name.isEmpty()) {
+                    continue;
+                }
+                if (isExtension) {
+                    extensions.add(name);
+                } else if (isInit || !packages.contains(name)) {
+                    // a package takes precedence over a module with the same name
+                    modules.put(name, toResourcePath(root.relativize(p)));
+                    if (isInit) {
+                        packages.add(name);
+                    }
+                }
+            }
+        }
+        for (var e : modules.entrySet()) {
+            String name = e.getKey();
+            if (!extensions.contains(name) && !blocked.contains(name)) {
+                index.put(name, e.getValue());
+            }
+        }
+        blocked.addAll(modules.keySet());
+        blocked.addAll(extensions);
+        return index;
+    }
+
+    /**
+     * Returns the dotted package name of {@code dir} relative to {@code root}, or {@code null} if
+     * it is not a regular package all the way down.
+     */
+    private static String getPackageName(Path root, Path dir) {
+        var rel = root.relativize(dir);
+        if (rel.toString().isEmpty()) {
+            return "";
+        }
+        var parts = new ArrayList<String>();
+        Path current = root;
+        for (Path part : rel) {
+            current = current.resolve(part);
+            if (!IDENTIFIER.matcher(part.toString()).matches() || !Files.isRegularFile(current.resolve("__init__.py"))) {
+                return null;
+            }
+            parts.add(part.toString());
+        }
+        return String.join(".", parts);
+    }
+
     private static String makeDirPath(Path p) {
         String ret = p.toString();
         if (!ret.endsWith(File.separator)) {
@@ -210,18 +829,7 @@ public class JBangIntegration {
                                 launcher,
                                 Paths.get(projectPath, "pom.xml").toString(),
                                 projectPath);
-                File tmp;
-                try {
-                    tmp = File.createTempFile("create_launcher", ".py");
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-                tmp.deleteOnExit();
-                try (var wr = new FileWriter(tmp)) {
-                    wr.write(script);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
+                File tmp = writeTempScript("create_launcher", script);
                 runGraalPy(dependencies, tmp.getAbsolutePath());
             }
         }
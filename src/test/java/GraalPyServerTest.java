@@ -0,0 +1,162 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/*
+ * Runs the server mode of the template on the standard streams with one context.
+ * Responses to different requests may interleave, so they are compared per id.
+ */
+public class GraalPyServerTest {
+    private static final long MAX_PAYLOAD = 64 * 1024 * 1024;
+
+    @Test
+    public void requestsAndErrors() throws Exception {
+        InputStream in = new SequenceInputStream(Collections.enumeration(List.of(
+                        frame("EVAL", "a", "print('hi')"),
+                        frame("CALL", "b", "json:dumps\n[[1, 2]]"),
+                        frame("NOPE", "c", ""),
+                        // the payload is skipped without reading it into memory
+                        header("EVAL", "d", MAX_PAYLOAD + 1),
+                        new Zeros(MAX_PAYLOAD + 1),
+                        // ends the input, nothing after it can be read
+                        header("EVAL", "e", -5),
+                        frame("EVAL", "f", "print('unreachable')"))));
+
+        Map<String, List<String>> responses = serve(in);
+
+        assertEquals(List.of("OUT hi\n", "DONE "), merge(responses.get("a")));
+        assertEquals(List.of("DONE \"[1, 2]\""), responses.get("b"));
+        assertEquals(List.of("FAIL Unknown request NOPE"), responses.get("c"));
+        assertEquals(List.of("FAIL Request of " + (MAX_PAYLOAD + 1) + " bytes exceeds the limit of " + MAX_PAYLOAD + " bytes"), responses.get("d"));
+        assertEquals(List.of("FAIL Invalid payload length -5"), responses.get("e"));
+        assertEquals(null, responses.get("f"));
+    }
+
+    @Test
+    public void malformedHeaderEndsTheConnection() throws Exception {
+        InputStream in = new SequenceInputStream(Collections.enumeration(List.of(
+                        new ByteArrayInputStream("EVAL g\n".getBytes(StandardCharsets.UTF_8)),
+                        frame("EVAL", "h", "print('unreachable')"))));
+
+        Map<String, List<String>> responses = serve(in);
+
+        assertEquals(List.of("-"), new ArrayList<>(responses.keySet()));
+        assertTrue(responses.get("-").get(0).startsWith("FAIL Malformed request header"));
+    }
+
+    /*
+     * Returns the payloads of the response frames, prefixed with their kind, by request id.
+     */
+    private static Map<String, List<String>> serve(InputStream in) throws Exception {
+        InputStream stdin = System.in;
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            System.setIn(in);
+            System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+            GraalPyServer.main(new String[0]);
+        } finally {
+            System.setIn(stdin);
+            System.setOut(stdout);
+        }
+        var responses = new LinkedHashMap<String, List<String>>();
+        var frames = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        while (true) {
+            var line = new ByteArrayOutputStream();
+            int b;
+            while ((b = frames.read()) != '\n') {
+                if (b < 0) {
+                    return responses;
+                }
+                line.write(b);
+            }
+            String[] header = line.toString(StandardCharsets.UTF_8).split(" ");
+            byte[] payload = new byte[Integer.parseInt(header[2])];
+            try {
+                frames.readFully(payload);
+            } catch (EOFException e) {
+                throw new AssertionError("Truncated response " + header[0] + " " + header[1], e);
+            }
+            responses.computeIfAbsent(header[1], k -> new ArrayList<>()).add(header[0] + " " + new String(payload, StandardCharsets.UTF_8));
+        }
+    }
+
+    /*
+     * Joins consecutive OUT frames, output may be split across frames at any point.
+     */
+    private static List<String> merge(List<String> responses) {
+        var merged = new ArrayList<String>();
+        for (String r : responses) {
+            int last = merged.size() - 1;
+            if (r.startsWith("OUT ") && last >= 0 && merged.get(last).startsWith("OUT ")) {
+                merged.set(last, merged.get(last) + r.substring(4));
+            } else {
+                merged.add(r);
+            }
+        }
+        return merged;
+    }
+
+    private static InputStream frame(String kind, String id, String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        var frame = new ByteArrayOutputStream();
+        frame.writeBytes((kind + " " + id + " " + bytes.length + "\n").getBytes(StandardCharsets.UTF_8));
+        frame.writeBytes(bytes);
+        return new ByteArrayInputStream(frame.toByteArray());
+    }
+
+    private static InputStream header(String kind, String id, long length) {
+        return new ByteArrayInputStream((kind + " " + id + " " + length + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static final class Zeros extends InputStream {
+        private long remaining;
+
+        Zeros(long length) {
+            remaining = length;
+        }
+
+        @Override
+        public int read() {
+            if (remaining == 0) {
+                return -1;
+            }
+            remaining--;
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining == 0) {
+                return -1;
+            }
+            int n = (int) Math.min(len, remaining);
+            Arrays.fill(b, off, off + n, (byte) 0);
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            long skipped = Math.max(0, Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+    }
+}
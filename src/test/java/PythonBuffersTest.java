@@ -0,0 +1,115 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Value;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/*
+ * Runs the bulk data bridge of the template on a context of the template.
+ */
+public class PythonBuffersTest {
+    private static Context context;
+    private static Value describe;
+    private static Value setItem;
+
+    @BeforeClass
+    public static void setUp() {
+        context = VirtualGraalPyContext.getContext();
+        describe = context.eval("python", "lambda v: f'{v.format} {v.readonly} {v.tolist()}'");
+        setItem = context.eval("python", """
+                        def set_item(v, i, x):
+                            v[i] = x
+
+                        set_item
+                        """);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void directBufferIsSharedBothWays() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(6);
+        buffer.put(new byte[]{1, 2, 3, 4, 5, 6}).position(2).limit(5);
+        Value view = PythonBuffers.memoryview(context, buffer);
+        // the view covers position to limit
+        assertEquals("B False [3, 4, 5]", describe.execute(view).asString());
+
+        buffer.put(3, (byte) 40);
+        assertEquals("B False [3, 40, 5]", describe.execute(view).asString());
+        setItem.execute(view, 2, 50);
+        assertEquals(50, buffer.get(4));
+    }
+
+    @Test
+    public void typedViewsUseTheStructFormat() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(2 * Double.BYTES).order(ByteOrder.nativeOrder());
+        buffer.asDoubleBuffer().put(new double[]{1.5, -2.25});
+        Value view = PythonBuffers.memoryview(context, buffer, "d");
+        assertEquals("d False [1.5, -2.25]", describe.execute(view).asString());
+
+        setItem.execute(view, 1, 4.0);
+        assertEquals(4.0, buffer.getDouble(Double.BYTES), 0);
+    }
+
+    @Test
+    public void readOnlyBufferGivesReadOnlyView() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(2).put(new byte[]{7, 8}).flip().asReadOnlyBuffer();
+        Value view = PythonBuffers.memoryview(context, buffer);
+        assertEquals("B True [7, 8]", describe.execute(view).asString());
+        try {
+            setItem.execute(view, 0, 1);
+            throw new AssertionError("wrote to a read-only view");
+        } catch (PolyglotException e) {
+            assertTrue(e.getMessage(), e.isGuestException() && e.getMessage().contains("read-only"));
+        }
+        assertEquals(7, buffer.get(0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void heapBufferIsRejected() {
+        PythonBuffers.memoryview(context, ByteBuffer.allocate(4));
+    }
+
+    @Test
+    public void copiesKeepFormatAndValues() {
+        assertEquals("B False [1, 254, 3]", describe.execute(PythonBuffers.copyOf(context, new byte[]{1, -2, 3})).asString());
+        assertEquals("h False [1, -2, 32767]", describe.execute(PythonBuffers.copyOf(context, new short[]{1, -2, Short.MAX_VALUE})).asString());
+        assertEquals("i False [1, -2, 2147483647]", describe.execute(PythonBuffers.copyOf(context, new int[]{1, -2, Integer.MAX_VALUE})).asString());
+        assertEquals("q False [1, -2, 9223372036854775807]", describe.execute(PythonBuffers.copyOf(context, new long[]{1, -2, Long.MAX_VALUE})).asString());
+        assertEquals("f False [1.5, -2.25]", describe.execute(PythonBuffers.copyOf(context, new float[]{1.5f, -2.25f})).asString());
+        assertEquals("d False [1.5, -2.25]", describe.execute(PythonBuffers.copyOf(context, new double[]{1.5, -2.25})).asString());
+    }
+
+    @Test
+    public void contiguousPythonBuffersAreCopied() {
+        assertEquals("abc", string(PythonBuffers.toByteBuffer(context, context.eval("python", "b'abc'"))));
+        assertEquals("abc", string(PythonBuffers.toByteBuffer(context, context.eval("python", "bytearray(b'abc')"))));
+
+        ByteBuffer ints = PythonBuffers.toByteBuffer(context, context.eval("python", "import array; array.array('i', [1, -2, 3])"));
+        assertEquals(3 * Integer.BYTES, ints.remaining());
+        assertEquals(-2, ints.order(ByteOrder.nativeOrder()).getInt(Integer.BYTES));
+    }
+
+    @Test
+    public void nonContiguousPythonBuffersAreCopied() {
+        assertEquals("ace", string(PythonBuffers.toByteBuffer(context, context.eval("python", "memoryview(bytearray(b'abcdef'))[::2]"))));
+        assertEquals("fdb", string(PythonBuffers.toByteBuffer(context, context.eval("python", "memoryview(b'abcdef')[::-2]"))));
+    }
+
+    private static String string(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+}
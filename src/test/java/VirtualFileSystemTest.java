@@ -0,0 +1,235 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.function.Predicate;
+
+import org.graalvm.polyglot.io.FileSystem;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/*
+ * Runs the VirtualFileSystem of the template against the vfs in src/test/resources.
+ */
+public class VirtualFileSystemTest {
+    private static final String SITE_PACKAGES = "/vfs/venv/lib/python3.10/site-packages";
+    private static final String EMBEDDED_NAMES = "data.txt fixture_pth.py other pathlib.py probe.py";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private VirtualFileSystem fs;
+
+    @Before
+    public void setUp() {
+        fs = new VirtualFileSystem();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        fs.close();
+    }
+
+    @Test
+    public void fileSizeIsServedFromTheIndex() throws IOException {
+        Path probe = path(SITE_PACKAGES + "/probe.py");
+        // load the index first, it is read once per process
+        fs.readAttributes(path(SITE_PACKAGES), "size");
+        long reads = VirtualFileSystem.resourceReads();
+
+        assertEquals((long) resource(SITE_PACKAGES + "/probe.py").length, fs.readAttributes(probe, "size").get("size"));
+        assertEquals((long) resource(SITE_PACKAGES + "/probe.py").length, fs.readAttributes(probe, "unix:size,mode").get("size"));
+        assertEquals(reads, VirtualFileSystem.resourceReads());
+    }
+
+    @Test
+    public void fileSizeMissingFromTheIndexIsRead() throws IOException {
+        Path data = path(SITE_PACKAGES + "/data.txt");
+        fs.readAttributes(path(SITE_PACKAGES), "size");
+        long reads = VirtualFileSystem.resourceReads();
+
+        assertEquals((long) resource(SITE_PACKAGES + "/data.txt").length, fs.readAttributes(data, "size").get("size"));
+        assertEquals(reads + 1, VirtualFileSystem.resourceReads());
+    }
+
+    @Test
+    public void directorySizeIsZero() throws IOException {
+        var attributes = fs.readAttributes(path(SITE_PACKAGES), "unix:size,isDirectory,mode");
+        assertEquals(0L, attributes.get("size"));
+        assertEquals(true, attributes.get("isDirectory"));
+        assertEquals(0040555, attributes.get("mode"));
+    }
+
+    @Test
+    public void overlayIsMergedIntoListings() throws IOException {
+        Path overlay = tmp.getRoot().toPath();
+        write(overlay, SITE_PACKAGES + "/added.py", "");
+        // names are case sensitive here, so this does not replace probe.py
+        write(overlay, SITE_PACKAGES + "/PROBE.py", "");
+        try (VirtualFileSystem ofs = new VirtualFileSystem(null, "/graalpy_vfs", "X:\\graalpy_vfs", overlay)) {
+            assertEquals(sorted(EMBEDDED_NAMES + " added.py PROBE.py"), names(ofs, SITE_PACKAGES));
+            assertEquals(sorted("lib pyvenv.cfg"), names(ofs, "/vfs/venv"));
+        }
+    }
+
+    @Test
+    public void overlayFilesReplaceEmbeddedFiles() throws IOException {
+        Path overlay = tmp.getRoot().toPath();
+        String content = "FOUND_BY = \"overlay\"\n";
+        write(overlay, SITE_PACKAGES + "/probe.py", content);
+        try (VirtualFileSystem ofs = new VirtualFileSystem(null, "/graalpy_vfs", "X:\\graalpy_vfs", overlay)) {
+            Path probe = path(ofs, SITE_PACKAGES + "/probe.py");
+            assertEquals(content, read(ofs, probe));
+            assertEquals((long) content.length(), ofs.readAttributes(probe, "size").get("size"));
+            assertEquals(sorted(EMBEDDED_NAMES), names(ofs, SITE_PACKAGES));
+        }
+    }
+
+    @Test
+    public void overlayEntriesReplaceEmbeddedOnesIgnoringCase() throws Exception {
+        Path overlay = tmp.getRoot().toPath();
+        write(overlay, SITE_PACKAGES + "/PROBE.py", "");
+        // without extraction, there is nothing to close
+        FileSystem ofs = caseInsensitiveFileSystem(overlay);
+        assertEquals(sorted("data.txt fixture_pth.py other pathlib.py PROBE.py"), names(ofs, SITE_PACKAGES));
+    }
+
+    @Test
+    public void overlayChangesAreSeenByLaterLookups() throws Exception {
+        Path overlay = tmp.getRoot().toPath();
+        Path hostSitePackages = Files.createDirectories(overlay.resolve(SITE_PACKAGES.substring("/vfs/".length())));
+        try (VirtualFileSystem ofs = new VirtualFileSystem(null, "/graalpy_vfs", "X:\\graalpy_vfs", overlay)) {
+            Path late = path(ofs, SITE_PACKAGES + "/late.py");
+            Path nested = path(ofs, SITE_PACKAGES + "/newpkg/mod.py");
+            // cache both as absent
+            assertFalse(exists(ofs, late));
+            assertFalse(exists(ofs, nested));
+
+            Files.writeString(hostSitePackages.resolve("late.py"), "");
+            Files.createDirectories(hostSitePackages.resolve("newpkg"));
+            Files.writeString(hostSitePackages.resolve("newpkg").resolve("mod.py"), "");
+            assertTrue(eventually(() -> exists(ofs, late)));
+            assertTrue(eventually(() -> exists(ofs, nested)));
+
+            Files.delete(hostSitePackages.resolve("late.py"));
+            assertTrue(eventually(() -> !exists(ofs, late)));
+        }
+    }
+
+    /*
+     * Loads a copy of VirtualFileSystem whose lookups ignore case like on Windows, with the
+     * resources of this one.
+     */
+    private static FileSystem caseInsensitiveFileSystem(Path overlay) throws Exception {
+        URL template = VirtualFileSystem.class.getProtectionDomain().getCodeSource().getLocation();
+        ClassLoader loader = new URLClassLoader(new URL[]{template}, VirtualFileSystemTest.class.getClassLoader()) {
+            @Override
+            protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+                if (!name.equals("VirtualFileSystem") && !name.startsWith("VirtualFileSystem$")) {
+                    return super.loadClass(name, resolve);
+                }
+                synchronized (getClassLoadingLock(name)) {
+                    Class<?> c = findLoadedClass(name);
+                    return c != null ? c : findClass(name);
+                }
+            }
+        };
+        Constructor<?> ctor = loader.loadClass("VirtualFileSystem").getDeclaredConstructor(Predicate.class, String.class, String.class, Path.class);
+        ctor.setAccessible(true);
+        System.setProperty("graalpy.vfs.caseInsensitive", "true");
+        try {
+            return (FileSystem) ctor.newInstance(null, "/graalpy_vfs", "X:\\graalpy_vfs", overlay);
+        } finally {
+            System.clearProperty("graalpy.vfs.caseInsensitive");
+        }
+    }
+
+    private static boolean eventually(Callable<Boolean> condition) throws Exception {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!condition.call()) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(20);
+        }
+        return true;
+    }
+
+    private static boolean exists(FileSystem fs, Path path) {
+        try {
+            fs.checkAccess(path, Set.of());
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static List<String> names(FileSystem fs, String resourcePath) throws IOException {
+        var names = new ArrayList<String>();
+        try (var ds = fs.newDirectoryStream(path(fs, resourcePath), p -> true)) {
+            for (Path p : ds) {
+                names.add(p.getFileName().toString());
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    private static List<String> sorted(String names) {
+        var list = new ArrayList<>(List.of(names.split(" ")));
+        Collections.sort(list);
+        return list;
+    }
+
+    private static String read(FileSystem fs, Path path) throws IOException {
+        try (InputStream in = Channels.newInputStream(fs.newByteChannel(path, Set.of(StandardOpenOption.READ)))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void write(Path overlay, String resourcePath, String content) throws IOException {
+        Path file = overlay.resolve(resourcePath.substring("/vfs/".length()));
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    private static Path path(FileSystem fs, String resourcePath) {
+        try {
+            Method m = fs.getClass().getMethod("resourcePathToPlatformPath", String.class);
+            // the class is not public, and copies of it are in another runtime package
+            m.setAccessible(true);
+            return fs.parsePath((String) m.invoke(fs, resourcePath));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Path path(String resourcePath) {
+        return fs.parsePath(fs.resourcePathToPlatformPath(resourcePath));
+    }
+
+    private static byte[] resource(String resourcePath) throws IOException {
+        try (InputStream in = VirtualFileSystemTest.class.getResourceAsStream(resourcePath)) {
+            return in.readAllBytes();
+        }
+    }
+}
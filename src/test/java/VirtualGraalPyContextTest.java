@@ -0,0 +1,71 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Value;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/*
+ * Runs contexts of the template on the vfs in src/test/resources. Creating a context
+ * takes seconds without a JIT, so the tests share one.
+ */
+public class VirtualGraalPyContextTest {
+    private static Context context;
+
+    @BeforeClass
+    public static void setUp() {
+        context = VirtualGraalPyContext.getContext();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void siteConfigIsApplied() {
+        String venv = new VirtualFileSystem().resourcePathToPlatformPath("/vfs/venv");
+        assertEquals(venv, context.eval("python", "import sys; sys.prefix").asString());
+        assertTrue(context.eval("python", "import sys; sys.path").as(List.class).contains(venv + "/lib/python3.10/site-packages"));
+        // the import line of a .pth file, siteconfig.txt lists it as exec
+        assertTrue(context.eval("python", "import sys; 'fixture_pth' in sys.modules").asBoolean());
+    }
+
+    @Test
+    public void indexDoesNotShadowEarlierSysPathEntries() {
+        // the home is not embedded, so its stdlib comes before the indexed site-packages
+        assertFalse(context.eval("python", "import pathlib; hasattr(pathlib, 'BACKPORT')").asBoolean());
+        assertEquals("path", context.eval("python", "import probe; probe.FOUND_BY").asString());
+    }
+
+    @Test
+    public void indexedModulesAreFoundBeforeSysPath() {
+        VirtualFileSystem fs = new VirtualFileSystem();
+        String index = "@venv/lib/python3.10/site-packages\nprobe\tother/probe.py\n";
+        // site-packages has a probe.py as well, the index points to other/probe.py
+        Value foundBy = context.eval("python", """
+                        def found_by(install, index, index_path, root):
+                            import sys
+                            path, meta_path = sys.path[:], sys.meta_path[:]
+                            sys.path[:] = [root]
+                            sys.modules.pop('probe', None)
+                            try:
+                                install(index, index_path)
+                                import probe
+                                return probe.FOUND_BY
+                            finally:
+                                sys.path[:], sys.meta_path[:] = path, meta_path
+                                sys.modules.pop('probe', None)
+
+                        found_by
+                        """).execute(context.eval("python", VirtualGraalPyContext.INSTALL_MODULE_INDEX_FINDER), index,
+                                        fs.resourcePathToPlatformPath("/vfs/modulesindex.txt"),
+                                        fs.resourcePathToPlatformPath("/vfs/venv/lib/python3.10/site-packages"));
+        assertEquals("index", foundBy.asString());
+    }
+}
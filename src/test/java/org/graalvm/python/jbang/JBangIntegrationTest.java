@@ -0,0 +1,144 @@
+package org.graalvm.python.jbang;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JBangIntegrationTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void filelistRecordsFileSizes() throws IOException {
+        Path vfs = tmp.newFolder("vfs").toPath();
+        write(vfs.resolve("a.py"), "x = 1\n");
+        write(vfs.resolve("pkg").resolve("__init__.py"), "");
+
+        JBangIntegration.generateFilelist(vfs);
+
+        assertEquals(List.of("/vfs/", "/vfs/a.py\t6", "/vfs/pkg/", "/vfs/pkg/__init__.py\t0"),
+                        Files.readAllLines(vfs.resolve("fileslist.txt")));
+    }
+
+    @Test
+    public void moduleIndexPrefersTheFirstRootOnSysPath() throws IOException {
+        Path vfs = tmp.newFolder("vfs").toPath();
+        Path stdlib = vfs.resolve("home").resolve("lib").resolve("python3.10");
+        Path sitePackages = vfs.resolve("venv").resolve("lib").resolve("python3.10").resolve("site-packages");
+        write(stdlib.resolve("json").resolve("__init__.py"), "");
+        write(stdlib.resolve("shared.py"), "");
+        write(sitePackages.resolve("shared.py"), "");
+        write(sitePackages.resolve("pkg").resolve("__init__.py"), "");
+        write(sitePackages.resolve("pkg").resolve("mod.py"), "");
+        write(sitePackages.resolve("fast.py"), "");
+        write(sitePackages.resolve("fast.cpython-310-x86_64-linux-gnu.so"), "");
+        // GraalPy's own modules come between the stdlib and site-packages
+        write(vfs.resolve("home").resolve("lib").resolve("graalpy23.1").resolve("modules").resolve("hpy").resolve("__init__.py"), "");
+        write(sitePackages.resolve("hpy").resolve("__init__.py"), "");
+
+        JBangIntegration.generateModuleIndex(vfs);
+
+        assertEquals(List.of(
+                        "@home/lib/python3.10",
+                        "json\tjson/__init__.py",
+                        "shared\tshared.py",
+                        "@home/lib/graalpy23.1/modules",
+                        "hpy\thpy/__init__.py",
+                        "@venv/lib/python3.10/site-packages",
+                        "pkg\tpkg/__init__.py",
+                        "pkg.mod\tpkg/mod.py"),
+                        Files.readAllLines(vfs.resolve("modulesindex.txt")));
+    }
+
+    @Test
+    public void moduleIndexIsNotWrittenWithoutHome() throws IOException {
+        Path vfs = tmp.newFolder("vfs").toPath();
+        // the stdlib of the runtime comes first on sys.path, so this must not be indexed
+        write(vfs.resolve("venv").resolve("lib").resolve("python3.10").resolve("site-packages").resolve("pathlib.py"), "");
+
+        JBangIntegration.generateModuleIndex(vfs);
+
+        assertFalse(Files.exists(vfs.resolve("modulesindex.txt")));
+    }
+
+    @Test
+    public void siteConfigListsPthPathsAndImports() throws IOException, InterruptedException {
+        Path venv = createHostVenv();
+        Path sitePackages = sitePackages(venv);
+        Files.createDirectories(sitePackages.resolve("extra"));
+        write(sitePackages.resolve("test.pth"), "# comment\nimport sys\nextra\nmissing\n");
+        Path vfs = tmp.newFolder("vfs").toPath();
+
+        JBangIntegration.generateSiteConfig(venv, vfs);
+
+        String relative = venv.relativize(sitePackages).toString().replace('\\', '/');
+        // the host python may add a customize line for its own sitecustomize
+        assertEquals(List.of("path\t" + relative, "exec\timport sys", "path\t" + relative + "/extra"),
+                        Files.readAllLines(vfs.resolve("siteconfig.txt")).subList(0, 3));
+    }
+
+    @Test
+    public void siteConfigIsNotWrittenForSystemSitePackages() throws IOException, InterruptedException {
+        Path venv = createHostVenv();
+        Path cfg = venv.resolve("pyvenv.cfg");
+        Files.writeString(cfg, Files.readString(cfg).replace("include-system-site-packages = false", "include-system-site-packages = true"));
+        Path vfs = tmp.newFolder("vfs").toPath();
+
+        JBangIntegration.generateSiteConfig(venv, vfs);
+
+        assertFalse(Files.exists(vfs.resolve("siteconfig.txt")));
+    }
+
+    @Test
+    public void importWithinBudgetPasses() throws IOException, InterruptedException {
+        Path venv = createHostVenv();
+        write(sitePackages(venv).resolve("quick.py"), "X = 1\n");
+
+        JBangIntegration.reportImportTime(venv, "quick", "60000");
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void importOverBudgetFailsTheBuild() throws IOException, InterruptedException {
+        Path venv = createHostVenv();
+        write(sitePackages(venv).resolve("slow.py"), "import time\ntime.sleep(0.5)\n");
+
+        JBangIntegration.reportImportTime(venv, "slow", "100");
+    }
+
+    /*
+     * Creates a venv of the host python3, whose interpreter stands in for the graalpy
+     * launcher of a real venv. Tests that need one are skipped without python3.
+     */
+    private Path createHostVenv() throws IOException, InterruptedException {
+        Path venv = tmp.getRoot().toPath().resolve("venv");
+        int status;
+        try {
+            status = new ProcessBuilder("python3", "-m", "venv", "--without-pip", venv.toString()).inheritIO().start().waitFor();
+        } catch (IOException e) {
+            status = -1;
+        }
+        Assume.assumeTrue("python3 with venv is not available", status == 0);
+        Files.createSymbolicLink(venv.resolve("bin").resolve("graalpy"), venv.resolve("bin").resolve("python3"));
+        return venv;
+    }
+
+    private static Path sitePackages(Path venv) throws IOException {
+        try (var s = Files.list(venv.resolve("lib"))) {
+            return s.filter(p -> p.getFileName().toString().startsWith("python3")).findFirst().get().resolve("site-packages");
+        }
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+}
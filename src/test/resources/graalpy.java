@@ -5,8 +5,11 @@
 //PIP termcolor
 
 import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
 import org.graalvm.polyglot.PolyglotAccess;
 import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
 import org.graalvm.polyglot.io.FileSystem;
 import org.graalvm.polyglot.io.IOAccess;
 
@@ -15,10 +18,23 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.net.StandardProtocolFamily;
 import java.net.URI;
-import java.net.URL;
+import java.net.UnixDomainSocketAddress;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
 import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.file.AccessMode;
 import java.nio.file.DirectoryStream;
 import java.nio.file.FileVisitResult;
@@ -29,24 +45,67 @@ import java.nio.file.OpenOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.nio.file.attribute.FileAttribute;
 import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.GroupPrincipal;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Predicate;
 
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
 public class graalpy {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--server")) {
+            GraalPyServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         try (Context context = VirtualGraalPyContext.getContext()) {
             switch (args.length) {
                 case 0:
@@ -56,8 +115,10 @@ public class graalpy {
                     context.eval("python", args[0]);
                     break;
                 default:
-                    throw new IllegalArgumentException("The main() helper only takes 0-1 arguments.");
+                    throw new IllegalArgumentException("The main() helper only takes 0-1 arguments, or --server [--contexts N] [--socket PATH].");
             }
+            VirtualGraalPyContext.traceStartup("eval");
+            VirtualGraalPyContext.traceStartup("resourceReads", VirtualFileSystem.resourceReads());
         } catch (PolyglotException e) {
             if (e.isExit()) {
                 System.exit(e.getExitStatus());
@@ -68,14 +129,699 @@ public class graalpy {
     }
 }
 
+/*
+ * Keeps warm contexts on a shared engine and runs requests read from stdin or a
+ * Unix domain socket, so that repeated invocations pay for context creation and
+ * the site import only once:
+ *
+ *   graalpy --server [--contexts N] [--socket PATH]
+ *
+ * Requests and responses are frames of a header line "<KIND> <id> <length>"
+ * followed by <length> bytes of UTF-8 payload. Requests can be pipelined, they run
+ * concurrently on up to N contexts and every response frame carries the id of
+ * its request.
+ * - EVAL: the payload is Python source to execute.
+ * - CALL: the payload is "module:function" on the first line, optionally followed
+ *   by a JSON array of arguments. The result of the call is returned as JSON.
+ * The output of a request is streamed in OUT and ERR frames. A request ends with
+ * DONE, whose payload is the result of a CALL, or with FAIL and an error message.
+ */
+final class GraalPyServer {
+    /*
+     * Larger requests are answered with FAIL without reading them into memory.
+     */
+    private static final long MAX_PAYLOAD = 64 * 1024 * 1024;
+
+    private static final String CALL_FUNCTION = """
+        def call(target, args):
+            import importlib, json
+            module, _, function = target.partition(':')
+            f = importlib.import_module(module)
+            for name in function.split('.'):
+                f = getattr(f, name)
+            return json.dumps(f(*json.loads(args)) if args.strip() else f())
+
+        call
+        """;
+
+    private final Engine engine = VirtualGraalPyContext.newEngine();
+    private final BlockingQueue<Worker> workers;
+    private final ExecutorService executor;
+
+    private GraalPyServer(int contexts) {
+        workers = new ArrayBlockingQueue<>(contexts);
+        for (int i = 0; i < contexts; i++) {
+            workers.add(new Worker());
+        }
+        executor = Executors.newFixedThreadPool(contexts);
+        VirtualGraalPyContext.traceStartup("ready");
+    }
+
+    static void main(String[] args) throws IOException, InterruptedException {
+        int contexts = 1;
+        String socket = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--contexts") && i + 1 < args.length) {
+                contexts = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--socket") && i + 1 < args.length) {
+                socket = args[++i];
+            } else {
+                throw new IllegalArgumentException("Unexpected server argument " + args[i] + ", expected --contexts N or --socket PATH.");
+            }
+        }
+        if (contexts < 1) {
+            throw new IllegalArgumentException("--contexts must be at least 1.");
+        }
+        GraalPyServer server = new GraalPyServer(contexts);
+        try {
+            if (socket == null) {
+                server.serve(new Connection(System.in, System.out));
+            } else {
+                server.listen(Paths.get(socket));
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    private void listen(Path socket) throws IOException {
+        Files.deleteIfExists(socket);
+        try (ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            channel.bind(UnixDomainSocketAddress.of(socket));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> socket.toFile().delete()));
+            while (true) {
+                SocketChannel client = channel.accept();
+                Thread t = new Thread(() -> {
+                    try (client) {
+                        serve(new Connection(Channels.newInputStream(client), new ChannelOutput(client)));
+                    } catch (IOException | InterruptedException e) {
+                        System.err.println("graalpy server connection failed: " + e);
+                    }
+                }, "graalpy-connection");
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+    }
+
+    /*
+     * Reads requests until the end of the input and waits for the submitted ones
+     * to finish before returning.
+     */
+    private void serve(Connection connection) throws IOException, InterruptedException {
+        Phaser pending = new Phaser(1);
+        try {
+            String[] header;
+            while ((header = connection.readHeader()) != null) {
+                String kind = header[0];
+                String id = header[1];
+                long length = Long.parseLong(header[2]);
+                if (length < 0) {
+                    // the end of the request is unknown, so the stream cannot be resynchronized
+                    connection.send("FAIL", id, "Invalid payload length " + length);
+                    break;
+                }
+                if (length > MAX_PAYLOAD) {
+                    connection.skipPayload(length);
+                    connection.send("FAIL", id, "Request of " + length + " bytes exceeds the limit of " + MAX_PAYLOAD + " bytes");
+                    continue;
+                }
+                byte[] payload = connection.readPayload((int) length);
+                if (!kind.equals("EVAL") && !kind.equals("CALL")) {
+                    connection.send("FAIL", id, "Unknown request " + kind);
+                    continue;
+                }
+                pending.register();
+                executor.execute(() -> {
+                    try {
+                        run(connection, kind, id, new String(payload, StandardCharsets.UTF_8));
+                    } finally {
+                        pending.arriveAndDeregister();
+                    }
+                });
+            }
+        } catch (NumberFormatException e) {
+            // the stream cannot be resynchronized after a malformed header
+            connection.send("FAIL", "-", "Malformed request header: " + e.getMessage());
+        } finally {
+            pending.arriveAndAwaitAdvance();
+        }
+    }
+
+    private void run(Connection connection, String kind, String id, String payload) {
+        Worker worker;
+        try {
+            worker = workers.take();
+        } catch (InterruptedException e) {
+            connection.send("FAIL", id, "Interrupted");
+            return;
+        }
+        worker.out.route(connection, id);
+        worker.err.route(connection, id);
+        try {
+            String result = "";
+            if (kind.equals("EVAL")) {
+                worker.context.eval(Source.create("python", payload));
+            } else {
+                int nl = payload.indexOf('\n');
+                String target = (nl < 0 ? payload : payload.substring(0, nl)).strip();
+                result = worker.call.execute(target, nl < 0 ? "" : payload.substring(nl + 1)).asString();
+            }
+            connection.send("DONE", id, result);
+        } catch (PolyglotException e) {
+            if (e.isExit() || e.isCancelled() || !e.isGuestException()) {
+                // the context cannot be used anymore
+                worker.reset();
+            }
+            connection.send("FAIL", id, e.isExit() ? "SystemExit: " + e.getExitStatus() : describe(e));
+        } finally {
+            worker.out.route(null, null);
+            worker.err.route(null, null);
+            workers.add(worker);
+        }
+    }
+
+    private static String describe(PolyglotException e) {
+        StringBuilder sb = new StringBuilder(String.valueOf(e.getMessage()));
+        for (PolyglotException.StackFrame frame : e.getPolyglotStackTrace()) {
+            if (frame.isGuestFrame()) {
+                sb.append("\n    at ").append(frame);
+            }
+        }
+        return sb.toString();
+    }
+
+    private void close() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        for (Worker worker : workers) {
+            worker.context.close();
+        }
+        engine.close();
+    }
+
+    private final class Worker {
+        final RoutedOutput out = new RoutedOutput("OUT");
+        final RoutedOutput err = new RoutedOutput("ERR");
+        Context context;
+        Value call;
+
+        Worker() {
+            create();
+        }
+
+        private void create() {
+            // the process input carries the requests, so contexts get none
+            context = VirtualGraalPyContext.getContext(engine, InputStream.nullInputStream(), out, err);
+            call = context.eval("python", CALL_FUNCTION);
+        }
+
+        void reset() {
+            try {
+                context.close(true);
+            } catch (PolyglotException e) {
+                // already closed by the exit
+            }
+            create();
+        }
+    }
+
+    /*
+     * The standard output or error of a context, sent as frames to the connection of
+     * the request the context currently runs. Contexts on a shared engine do not
+     * buffer their output, so it is streamed as soon as it is written.
+     */
+    private static final class RoutedOutput extends OutputStream {
+        private final String kind;
+        private volatile Connection connection;
+        private volatile String id;
+
+        RoutedOutput(String kind) {
+            this.kind = kind;
+        }
+
+        void route(Connection c, String requestId) {
+            connection = c;
+            id = requestId;
+        }
+
+        @Override
+        public void write(int b) {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            Connection c = connection;
+            if (c != null && len > 0) {
+                c.send(kind, id, b, off, len);
+            }
+        }
+    }
+
+    /*
+     * Writes to the socket directly. Unlike Channels.newOutputStream, this does not
+     * wait for the lock held by a concurrent blocking read of the requests.
+     */
+    private static final class ChannelOutput extends OutputStream {
+        private final SocketChannel channel;
+
+        ChannelOutput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static final class Connection {
+        private final InputStream in;
+        private final OutputStream out;
+        private boolean broken;
+
+        Connection(InputStream in, OutputStream out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        /*
+         * Returns kind, id and length of the next request, or null at the end of the input.
+         */
+        String[] readHeader() throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    if (line.size() == 0) {
+                        return null;
+                    }
+                    throw new IOException("Unexpected end of input in request header");
+                }
+                line.write(b);
+            }
+            String[] header = line.toString(StandardCharsets.UTF_8).strip().split(" ");
+            if (header.length != 3) {
+                throw new NumberFormatException(line.toString(StandardCharsets.UTF_8));
+            }
+            return header;
+        }
+
+        byte[] readPayload(int length) throws IOException {
+            byte[] payload = in.readNBytes(length);
+            if (payload.length != length) {
+                throw new IOException("Unexpected end of input in request payload");
+            }
+            return payload;
+        }
+
+        void skipPayload(long length) throws IOException {
+            in.skipNBytes(length);
+        }
+
+        void send(String kind, String id, String payload) {
+            byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+            send(kind, id, bytes, 0, bytes.length);
+        }
+
+        synchronized void send(String kind, String id, byte[] b, int off, int len) {
+            if (broken) {
+                return;
+            }
+            try {
+                out.write((kind + " " + id + " " + len + "\n").getBytes(StandardCharsets.UTF_8));
+                out.write(b, off, len);
+                out.flush();
+            } catch (IOException e) {
+                // the client went away, keep running its remaining requests without output
+                broken = true;
+            }
+        }
+    }
+}
+
+/*
+ * Moves bulk data between Java and Python without an interop call per element.
+ * Direct ByteBuffers and other off-heap memory are exposed to Python as memoryview
+ * objects over the same memory, so usable with array, struct or numpy.frombuffer
+ * without copying, and writes on either side are visible to the other. Typed views
+ * read the memory in native byte order, so fill such buffers after calling
+ * order(ByteOrder.nativeOrder()).
+ * Java arrays can be moved by the garbage collector, they are copied once into
+ * direct memory. Python buffers are copied once into a direct ByteBuffer.
+ */
+final class PythonBuffers {
+    /*
+     * Reads the native address of a direct buffer, which is not public API. Unsafe
+     * is used through a method handle, so compiling the app does not warn about it.
+     */
+    private static final MethodHandle GET_ADDRESS;
+    static {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field f = unsafeClass.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            Object unsafe = f.get(null);
+            var lookup = MethodHandles.lookup();
+            long offset = (long) lookup.findVirtual(unsafeClass, "objectFieldOffset", MethodType.methodType(long.class, Field.class))
+                .invoke(unsafe, Buffer.class.getDeclaredField("address"));
+            MethodHandle getLong = lookup.findVirtual(unsafeClass, "getLong", MethodType.methodType(long.class, Object.class, long.class));
+            GET_ADDRESS = MethodHandles.insertArguments(MethodHandles.insertArguments(getLong, 2, offset), 0, unsafe)
+                .asType(MethodType.methodType(long.class, ByteBuffer.class));
+        } catch (Throwable e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /*
+     * Defined once per context and kept in sys.modules. The ctypes array that
+     * provides the memory of a view references the Java owner of the memory, so
+     * it cannot be freed while Python still uses the view.
+     */
+    private static final Source HELPERS = Source.create("python", """
+        import sys
+        helpers = sys.modules.get('__graalpy_buffers__')
+        if helpers is None:
+            import ctypes, types
+
+            def view(address, nbytes, fmt, readonly, owner):
+                memory = (ctypes.c_char * nbytes).from_address(address)
+                memory._owner = owner
+                v = memoryview(memory).cast('B')
+                if fmt != 'B':
+                    v = v.cast(fmt)
+                return v.toreadonly() if readonly else v
+
+            def nbytes(obj):
+                return memoryview(obj).nbytes
+
+            def copy_into(address, obj):
+                v = memoryview(obj)
+                if isinstance(obj, bytes):
+                    src = obj
+                elif not v.c_contiguous or v.readonly:
+                    src = v.tobytes()
+                else:
+                    src = (ctypes.c_char * v.nbytes).from_buffer(v.cast('B'))
+                ctypes.memmove(address, src, v.nbytes)
+
+            helpers = types.ModuleType('__graalpy_buffers__')
+            helpers.view = view
+            helpers.nbytes = nbytes
+            helpers.copy_into = copy_into
+            sys.modules[helpers.__name__] = helpers
+        helpers
+        """);
+
+    private PythonBuffers() {
+    }
+
+    /*
+     * Returns a memoryview of the bytes between position and limit of a direct buffer.
+     */
+    static Value memoryview(Context context, ByteBuffer buffer) {
+        return memoryview(context, buffer, "B");
+    }
+
+    /*
+     * Returns a memoryview of the bytes between position and limit of a direct buffer,
+     * cast to a struct format like "d" or "i". It is read-only if the buffer is.
+     */
+    static Value memoryview(Context context, ByteBuffer buffer, String format) {
+        if (!buffer.isDirect()) {
+            throw new IllegalArgumentException("Only direct buffers can be shared with Python, use copyOf for heap buffers");
+        }
+        long address = address(buffer) + buffer.position();
+        return view(context, address, buffer.remaining(), format, buffer.isReadOnly(), buffer);
+    }
+
+    /*
+     * Returns a memoryview of native memory, for example of a memory segment. The
+     * owner is kept alive as long as the view, and the memory must stay valid until then.
+     */
+    static Value memoryview(Context context, long address, long bytes, String format, Object owner) {
+        return view(context, address, bytes, format, false, owner);
+    }
+
+    static Value copyOf(Context context, byte[] array) {
+        return memoryview(context, ByteBuffer.allocateDirect(array.length).put(array).flip(), "B");
+    }
+
+    static Value copyOf(Context context, short[] array) {
+        ByteBuffer b = allocate(array.length * Short.BYTES);
+        b.asShortBuffer().put(array);
+        return memoryview(context, b, "h");
+    }
+
+    static Value copyOf(Context context, int[] array) {
+        ByteBuffer b = allocate(array.length * Integer.BYTES);
+        b.asIntBuffer().put(array);
+        return memoryview(context, b, "i");
+    }
+
+    static Value copyOf(Context context, long[] array) {
+        ByteBuffer b = allocate(array.length * Long.BYTES);
+        b.asLongBuffer().put(array);
+        return memoryview(context, b, "q");
+    }
+
+    static Value copyOf(Context context, float[] array) {
+        ByteBuffer b = allocate(array.length * Float.BYTES);
+        b.asFloatBuffer().put(array);
+        return memoryview(context, b, "f");
+    }
+
+    static Value copyOf(Context context, double[] array) {
+        ByteBuffer b = allocate(array.length * Double.BYTES);
+        b.asDoubleBuffer().put(array);
+        return memoryview(context, b, "d");
+    }
+
+    /*
+     * Copies the contents of a Python object that supports the buffer protocol, such
+     * as bytes, bytearray, array or a numpy array, into a new direct buffer in native
+     * byte order.
+     */
+    static ByteBuffer toByteBuffer(Context context, Value buffer) {
+        Value helpers = context.eval(HELPERS);
+        ByteBuffer b = allocate(helpers.invokeMember("nbytes", buffer).asInt());
+        helpers.invokeMember("copy_into", address(b), buffer);
+        return b;
+    }
+
+    private static long address(ByteBuffer buffer) {
+        try {
+            return (long) GET_ADDRESS.invokeExact(buffer);
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+
+    private static Value view(Context context, long address, long bytes, String format, boolean readonly, Object owner) {
+        return context.eval(HELPERS).invokeMember("view", address, bytes, format, readonly, owner);
+    }
+}
+
 final class VirtualGraalPyContext {
     private static final String VENV_PREFIX = "/vfs/venv";
     private static final String HOME_PREFIX = "/vfs/home";
+    private static final String MODULE_INDEX = "/vfs/modulesindex.txt";
+    private static final String BUILD_HASH = "/vfs/buildhash.txt";
+    private static final String SITE_CONFIG = "/vfs/siteconfig.txt";
+
+    /*
+     * Directory for the compiled engine state of native images built with
+     * //GRAALPY_ENGINE_CACHE. See engineCacheOptions.
+     */
+    private static final String ENGINE_CACHE = System.getenv("GRAALPY_ENGINE_CACHE");
+
+    /*
+     * If the GRAALPY_STARTUP_TRACE environment variable is set, startup milestones are
+     * printed to stderr as "[graalpy-startup] <phase> <microseconds>". If the variable
+     * holds a timestamp in microseconds since the epoch, e.g. taken by a benchmark harness
+     * just before starting the process, times are measured from there. Any other value,
+     * such as 1, measures from class initialization.
+     */
+    private static final String STARTUP_TRACE = System.getenv("GRAALPY_STARTUP_TRACE");
+    private static final long STARTUP_TRACE_ORIGIN = startupTraceOrigin();
+
+    /*
+     * Does what importing site would do for the embedded venv, from the result of
+     * the site-packages processing that ran at build time: the venv becomes the
+     * prefix, its site directories are added to sys.path and the import lines of
+     * its .pth files run, without listing site-packages and reading the .pth files.
+     */
+    private static final String APPLY_SITE_CONFIG = """
+        def apply_site_config(venv, config):
+            import os, site, sys
+            sys.prefix = sys.exec_prefix = venv
+            site.PREFIXES = [venv]
+            site.ENABLE_USER_SITE = False
+            customize = []
+            for line in config.splitlines():
+                kind, _, value = line.partition('\\t')
+                if kind == 'path':
+                    path = os.path.join(venv, *value.split('/'))
+                    if path not in sys.path:
+                        sys.path.append(path)
+                elif kind == 'exec':
+                    exec(value)
+                elif kind == 'customize':
+                    customize.append(value)
+            site.setquit()
+            site.setcopyright()
+            site.sethelper()
+            if 'sitecustomize' in customize:
+                site.execsitecustomize()
+
+        apply_site_config
+        """;
+
+    /*
+     * Installs a meta path finder that resolves modules listed in the module index
+     * generated at build time with a single lookup instead of searching sys.path.
+     * It runs before the path based finders, which still handle everything that is
+     * not indexed. A root is only served from the index if every sys.path entry in
+     * front of it is an indexed root as well, otherwise a module in an earlier entry,
+     * such as the stdlib of a home that is not embedded, would lose to the index.
+     */
+    static final String INSTALL_MODULE_INDEX_FINDER = """
+        def install_module_index_finder(index, index_path):
+            import os, sys
+            from importlib.machinery import PathFinder, SourceFileLoader
+            from importlib.util import spec_from_file_location
+
+            vfs_root = os.path.dirname(index_path)
+            roots = {}
+            entries = None
+            for line in index.splitlines():
+                if line.startswith('@'):
+                    entries = roots.setdefault(os.path.join(vfs_root, *line[1:].split('/')), [])
+                elif entries is not None and line:
+                    entries.append(line.split('\\t', 1))
+            modules = {}
+            for entry in sys.path:
+                if entry not in roots:
+                    # entries that do not exist cannot shadow an indexed module
+                    if os.path.exists(entry):
+                        break
+                    continue
+                for name, relpath in roots[entry]:
+                    modules.setdefault(name, os.path.join(entry, *relpath.split('/')))
+            if not modules:
+                return
+
+            class ModuleIndexFinder:
+                @staticmethod
+                def find_spec(fullname, path=None, target=None):
+                    origin = modules.get(fullname)
+                    if origin is None:
+                        return None
+                    return spec_from_file_location(fullname, origin, loader=SourceFileLoader(fullname, origin))
+
+                @staticmethod
+                def invalidate_caches():
+                    pass
+
+            idx = sys.meta_path.index(PathFinder) if PathFinder in sys.meta_path else len(sys.meta_path)
+            sys.meta_path.insert(idx, ModuleIndexFinder)
+
+        install_module_index_finder
+        """;
 
     public static Context getContext() {
+        return getContext(null, null, null, null);
+    }
+
+    /*
+     * Creates an engine to share between contexts. Engine options must be set here,
+     * contexts with an explicit engine only accept language options.
+     */
+    static Engine newEngine() {
+        var builder = Engine.newBuilder()
+            // Do not warn if running without JIT. This can be desirable for short running scripts
+            // to reduce memory footprint.
+            .option("engine.WarnInterpreterOnly", "false");
+        Map<String, String> cacheOptions = engineCacheOptions();
+        if (!cacheOptions.isEmpty()) {
+            builder.allowExperimentalOptions(true).options(cacheOptions);
+        }
+        return builder.build();
+    }
+
+    /*
+     * The first run of a native image with GRAALPY_ENGINE_CACHE set stores the compiled
+     * code of its hot Python functions in that directory when the engine is closed, and
+     * later runs load it, so they start with compiled code. The file name contains a
+     * hash of the build inputs, i.e. the app classes, the VFS contents, the dependency
+     * versions and the native-image configuration, and the version of the VM the image
+     * was built with, so a rebuild with any changes does not load a stale cache. The
+     * cache is first stored under a temporary name and moved into place on exit, so
+     * concurrent runs never load a partially written file.
+     * The cache options are experimental, so when they are used, experimental options
+     * are also allowed for the context, unless it runs on a shared engine.
+     */
+    static Map<String, String> engineCacheOptions() {
+        if (ENGINE_CACHE == null || System.getProperty("org.graalvm.nativeimage.imagecode") == null) {
+            return Map.of();
+        }
+        try {
+            byte[] hash = VirtualFileSystem.readResource(BUILD_HASH);
+            if (hash == null) {
+                // not built with //GRAALPY_ENGINE_CACHE
+                return Map.of();
+            }
+            String vmVersion = System.getProperty("java.vm.version", "unknown").replaceAll("[^A-Za-z0-9.-]", "_");
+            String name = "graalpy-" + new String(hash, StandardCharsets.UTF_8).strip() + "-" + vmVersion + ".image";
+            Path cache = Paths.get(ENGINE_CACHE, name).toAbsolutePath();
+            if (Files.isRegularFile(cache)) {
+                return Map.of("engine.CacheLoad", cache.toString());
+            }
+            Files.createDirectories(cache.getParent());
+            Path tmp = cache.resolveSibling(cache.getFileName() + "." + ProcessHandle.current().pid() + ".tmp");
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    if (Files.exists(tmp)) {
+                        Files.move(tmp, cache, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                } catch (IOException e) {
+                    System.err.format("Could not store the engine cache %s: %s%n", cache, e);
+                }
+            }));
+            return Map.of("engine.CacheStore", tmp.toString());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /*
+     * Creates a context on the given shared engine, or on its own engine if null.
+     * The standard streams are those of the process unless given.
+     */
+    static Context getContext(Engine engine, InputStream in, OutputStream out, OutputStream err) {
         VirtualFileSystem vfs = new VirtualFileSystem();
+        byte[] siteConfig;
+        try {
+            siteConfig = VirtualFileSystem.readResource(SITE_CONFIG);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
         var builder = Context.newBuilder()
-            // set true to allow experimental options
+            // set true to allow experimental options, engineCacheOptions below enables them
+            // for contexts on their own engine when GRAALPY_ENGINE_CACHE is used
             .allowExperimentalOptions(false)
             // deny all privileges unless configured below
             .allowAllAccess(false)
@@ -100,20 +846,103 @@ final class VirtualGraalPyContext {
             .option("log.python.level", System.getenv("PYTHONVERBOSE") != null ? "FINE" : "SEVERE")
             // equivalent to setting the PYTHONWARNINGS environment variable
             .option("python.WarnOptions", System.getenv("PYTHONWARNINGS") == null ? "" : System.getenv("PYTHONWARNINGS"))
-            // print Python exceptions directly
-            .option("python.AlwaysRunExcepthook", "true")
-            // Force to automatically import site.py module, to make Python packages available
-            .option("python.ForceImportSite", "true")
+            // print Python exceptions directly, unless a shared engine runs requests that report their own errors
+            .option("python.AlwaysRunExcepthook", engine != null ? "false" : "true")
+            // equivalent to the Python -u flag, so output is not held back in long running processes
+            .option("python.UnbufferedIO", engine != null ? "true" : "false")
+            // Force to automatically import site.py module, to make Python packages available,
+            // unless the build precomputed what it does
+            .option("python.ForceImportSite", siteConfig == null ? "true" : "false")
+            // equivalent to the Python -S flag, site is applied from the precomputed configuration
+            .option("python.NoSiteFlag", siteConfig == null ? "false" : "true")
             // The sys.executable path, a virtual path that is used by the interpreter to discover packages
-            .option("python.Executable", vfs.resourcePathToPlatformPath(VENV_PREFIX) + (VirtualFileSystem.isWindows() ? "\\Scripts\\python.exe" : "/bin/python"))
+            .option("python.Executable", vfs.resourcePathToPlatformPath(VENV_PREFIX) + (VirtualFileSystem.isWindows() ? "\\Scripts\\python.exe" : "/bin/python"));
+        if (engine != null) {
+            builder.engine(engine);
+        } else {
             // Do not warn if running without JIT. This can be desirable for short running scripts
             // to reduce memory footprint.
-            .option("engine.WarnInterpreterOnly", "false");
-        if (System.getProperty("org.graalvm.nativeimage.imagecode") != null) {
-            // Set the python home to be read from the embedded resources
+            builder.option("engine.WarnInterpreterOnly", "false");
+            Map<String, String> cacheOptions = engineCacheOptions();
+            if (!cacheOptions.isEmpty()) {
+                builder.allowExperimentalOptions(true).options(cacheOptions);
+            }
+        }
+        if (in != null) {
+            builder.in(in);
+        }
+        if (out != null) {
+            builder.out(out);
+        }
+        if (err != null) {
+            builder.err(err);
+        }
+        if (System.getProperty("org.graalvm.nativeimage.imagecode") != null || hasEmbeddedHome(vfs)) {
+            // Set the python home to be read from the embedded resources, which native images
+            // always include and JVM builds with //GRAALPY_EMBED_HOME
             builder.option("python.PythonHome", vfs.resourcePathToPlatformPath(HOME_PREFIX));
         }
-        return builder.build();
+        Context context = builder.build();
+        traceStartup("context");
+        // with python.ForceImportSite, this imports the site module
+        context.initialize("python");
+        if (siteConfig != null) {
+            context.eval("python", APPLY_SITE_CONFIG)
+                .execute(vfs.resourcePathToPlatformPath(VENV_PREFIX), new String(siteConfig, StandardCharsets.UTF_8));
+        }
+        traceStartup("site");
+        try {
+            byte[] index = VirtualFileSystem.readResource(MODULE_INDEX);
+            if (index != null) {
+                context.eval("python", INSTALL_MODULE_INDEX_FINDER)
+                    .execute(new String(index, StandardCharsets.UTF_8), vfs.resourcePathToPlatformPath(MODULE_INDEX));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return context;
+    }
+
+    private static boolean hasEmbeddedHome(VirtualFileSystem vfs) {
+        try {
+            vfs.checkAccess(vfs.parsePath(vfs.resourcePathToPlatformPath(HOME_PREFIX)), Set.of());
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    static void traceStartup(String phase) {
+        if (STARTUP_TRACE != null) {
+            traceStartup(phase, epochMicros() - STARTUP_TRACE_ORIGIN);
+        }
+    }
+
+    static void traceStartup(String name, long value) {
+        if (STARTUP_TRACE != null) {
+            System.err.println("[graalpy-startup] " + name + " " + value);
+        }
+    }
+
+    private static long startupTraceOrigin() {
+        long now = epochMicros();
+        if (STARTUP_TRACE != null) {
+            try {
+                long origin = Long.parseLong(STARTUP_TRACE);
+                // only accept timestamps from the last hour, anything else is just a flag
+                if (origin <= now && origin > now - TimeUnit.HOURS.toMicros(1)) {
+                    return origin;
+                }
+            } catch (NumberFormatException e) {
+                // measure from here
+            }
+        }
+        return now;
+    }
+
+    private static long epochMicros() {
+        Instant now = Instant.now();
+        return now.getEpochSecond() * 1_000_000 + now.getNano() / 1_000;
     }
 }
 
@@ -128,22 +957,33 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
      * Index of all files and directories available in the resources at runtime.
      * - paths are absolute
      * - directory paths end with a '/'
-     * - uses '/' separator regardless of platform.
+     * - uses '/' separator regardless of platform
+     * - file paths may be followed by a tab and the file size in bytes.
      * Used to determine directory entries, if an entry is a file or a directory, etc.
      */
     private static final String FILES_LIST_PATH = VFS_PREFIX + "/fileslist.txt";
 
     /*
-     * Maps platform-specific paths to entries.
+     * Maps platform-specific paths to entries. Contexts of the server mode look up
+     * paths from several threads.
      */
-    private static final TreeMap<String, Entry> VFS_ENTRIES = new TreeMap<>();
+    private static final Map<String, Entry> VFS_ENTRIES = new ConcurrentHashMap<>();
 
     /*
-     * These use '/' as the separator and start with VFS_PREFIX, no trailing slashes.
+     * The contents of FILES_LIST_PATH, read on first use. It is only published once
+     * it is complete, so other threads never see a partially filled index.
      */
-    private static Set<String> filesList;
-    private static Set<String> dirsList;
-    private static Map<String, String> lowercaseToResourceMap;
+    private static volatile Index index;
+
+    private static final class Index {
+        /*
+         * These use '/' as the separator and start with VFS_PREFIX, no trailing slashes.
+         * The files list maps each file to its size, or -1 if the index does not record it.
+         */
+        final Map<String, Long> filesList = new HashMap<>();
+        final Set<String> dirsList = new HashSet<>();
+        final Map<String, String> lowercaseToResourceMap = caseInsensitive ? new HashMap<>() : null;
+    }
 
     private final FileSystem delegate = FileSystem.newDefaultFileSystem();
 
@@ -152,10 +992,47 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
     private static final String RESOURCE_SEPARATOR = String.valueOf(RESOURCE_SEPARATOR_CHAR);
 
     /*
-     * For files, `data` is a byte[], for directories it is a Path[] which
-     * contains platform-specific paths.
+     * Attribute values shared by all entries. The filesystem is read-only, so
+     * everything is readable and executable, owned by root and never modified.
      */
-    private static final record Entry(boolean isFile, Object data) {};
+    private static final FileTime EPOCH = FileTime.fromMillis(0);
+    private static final GroupPrincipal ROOT_PRINCIPAL = () -> "root";
+    private static final Set<PosixFilePermission> PERMISSIONS = Collections.unmodifiableSet(PosixFilePermissions.fromString("r-xr-xr-x"));
+    private static final int S_IFDIR = 0040000;
+    private static final int S_IFREG = 0100000;
+    private static final AtomicLong INODES = new AtomicLong();
+
+    /*
+     * A file or directory in the resources. File contents and directory listings
+     * are only loaded when they are needed, and the attributes of each requested
+     * view are computed once and shared by all callers.
+     */
+    private static final class Entry {
+        private final String resourcePath;
+        private final boolean isFile;
+        private final long inode = INODES.incrementAndGet();
+        private volatile long size;
+
+        /*
+         * For files, `data` is a byte[], for directories it is a Path[] which
+         * contains platform-specific paths. Null until first requested, threads
+         * that request it at the same time may each load it.
+         */
+        private volatile Object data;
+
+        /*
+         * Maps the `attributes` argument of readAttributes to an immutable result.
+         * Replaced as a whole when a new attribute string is seen, so lookups need
+         * no locking.
+         */
+        private volatile Map<String, Map<String, Object>> attributeViews = Map.of();
+
+        Entry(String resourcePath, boolean isFile, long size) {
+            this.resourcePath = resourcePath;
+            this.isFile = isFile;
+            this.size = size;
+        }
+    }
 
     /*
      * Determines where the virtual filesystem lives in the real filesystem,
@@ -166,6 +1043,11 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
      */
     private final Path mountPoint;
 
+    /**
+     * A host directory layered over the embedded files, see {@link Overlay}.
+     */
+    private final Overlay overlay;
+
     /**
      * The temporary directory where to extract files/directories to.
      */
@@ -175,7 +1057,12 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
      * A filter to determine if a path should be extracted (see {@link #shouldExtract(Path)}).
      */
     private final Predicate<Path> extractFilter;
-    private static final boolean caseInsensitive = isWindows();
+    /*
+     * Lookups ignore case on Windows. The graalpy.vfs.caseInsensitive system property,
+     * read when the class is initialized, does the same elsewhere, so tests can cover
+     * the Windows behavior on other platforms.
+     */
+    private static final boolean caseInsensitive = isWindows() || Boolean.getBoolean("graalpy.vfs.caseInsensitive");
 
     private static final Predicate<Path> DEFAULT_EXTRACT_FILTER = p -> {
         String s = p.toString();
@@ -203,6 +1090,16 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
      * causing that no extraction will happen.
      */
     public VirtualFileSystem(Predicate<Path> extractFilter, String unixMountPoint, String windowsMountPoint) {
+        this(extractFilter, unixMountPoint, windowsMountPoint, overlayRootFromEnv());
+    }
+
+    /**
+     * Like {@link #VirtualFileSystem(Predicate, String, String)}, with the host directory to layer
+     * over the embedded files given instead of read from GRAALPY_VFS_OVERLAY, or {@code null}
+     * for none.
+     */
+    VirtualFileSystem(Predicate<Path> extractFilter, String unixMountPoint, String windowsMountPoint, Path overlayRoot) {
+        Metrics.register();
         String mp = System.getenv("GRAALPY_VFS_MOUNT_POINT");
         if (mp == null) {
             mp = isWindows() ? windowsMountPoint : unixMountPoint;
@@ -211,6 +1108,15 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
         if (mp.endsWith(PLATFORM_SEPARATOR) || !mountPoint.isAbsolute()) {
             throw new IllegalArgumentException("GRAALPY_VFS_MOUNT_POINT must be set to an absolute path without a trailing separator");
         }
+        if (overlayRoot != null) {
+            Path root = overlayRoot.toAbsolutePath().normalize();
+            if (!Files.isDirectory(root)) {
+                throw new IllegalArgumentException("The overlay " + root + " is not an existing directory");
+            }
+            this.overlay = Overlay.get(root);
+        } else {
+            this.overlay = null;
+        }
         if (extractFilter != null && extractFilter != DEFAULT_EXTRACT_FILTER) {
             this.extractFilter = p -> (extractFilter.test(p) || DEFAULT_EXTRACT_FILTER.test(p));
         } else {
@@ -233,6 +1139,18 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
         }
     }
 
+    private static Path overlayRootFromEnv() {
+        String overlayDir = System.getenv("GRAALPY_VFS_OVERLAY");
+        if (overlayDir == null) {
+            return null;
+        }
+        Path overlayRoot = Path.of(overlayDir);
+        if (!Files.isDirectory(overlayRoot)) {
+            throw new IllegalArgumentException("GRAALPY_VFS_OVERLAY must be set to an existing directory");
+        }
+        return overlayRoot;
+    }
+
     public void close() {
         if (extractDir != null) {
             try {
@@ -290,59 +1208,75 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
         return path;
     }
 
-    private static Set<String> getFilesList() throws IOException {
-        if (filesList == null) {
-            initFilesAndDirsList();
-        }
-        return filesList;
+    private static Map<String, Long> getFilesList() throws IOException {
+        return getIndex().filesList;
     }
 
     private static Set<String> getDirsList() throws IOException {
-        if (dirsList == null) {
-            initFilesAndDirsList();
-        }
-        return dirsList;
+        return getIndex().dirsList;
     }
 
     private static Map<String, String> getLowercaseToResourceMap() throws IOException {
         assert caseInsensitive;
-        if (lowercaseToResourceMap == null) {
-            initFilesAndDirsList();
+        return getIndex().lowercaseToResourceMap;
+    }
+
+    private static Index getIndex() throws IOException {
+        Index i = index;
+        if (i == null) {
+            synchronized (Index.class) {
+                i = index;
+                if (i == null) {
+                    i = initFilesAndDirsList();
+                }
+            }
         }
-        return lowercaseToResourceMap;
+        return i;
     }
 
-    private static void initFilesAndDirsList() throws IOException {
-        filesList = new HashSet<>();
-        dirsList = new HashSet<>();
-        if (caseInsensitive) {
-            lowercaseToResourceMap = new HashMap<>();
+    private static Index initFilesAndDirsList() throws IOException {
+        Index i = new Index();
+        if (Metrics.ENABLED) {
+            Metrics.RESOURCE_LOADS.increment();
         }
         try(InputStream stream = VirtualFileSystem.class.getResourceAsStream(FILES_LIST_PATH)) {
-            if (stream == null) {
-                return;
-            }
-            BufferedReader br = new BufferedReader(new InputStreamReader(stream));
-            String line;
-            while((line = br.readLine()) != null) {
-                if(line.endsWith(RESOURCE_SEPARATOR)) {
-                    line = line.substring(0, line.length() - 1);
-                    dirsList.add(line);
-                } else {
-                    filesList.add(line);
-                }
-                if (caseInsensitive) {
-                    lowercaseToResourceMap.put(line.toLowerCase(Locale.ROOT), line);
+            if (stream != null) {
+                BufferedReader br = new BufferedReader(new InputStreamReader(stream));
+                String line;
+                while((line = br.readLine()) != null) {
+                    if(line.endsWith(RESOURCE_SEPARATOR)) {
+                        line = line.substring(0, line.length() - 1);
+                        i.dirsList.add(line);
+                    } else {
+                        int tab = line.indexOf('\t');
+                        long size = -1;
+                        if (tab >= 0) {
+                            size = Long.parseLong(line.substring(tab + 1));
+                            line = line.substring(0, tab);
+                        }
+                        i.filesList.put(line, size);
+                    }
+                    if (caseInsensitive) {
+                        i.lowercaseToResourceMap.put(line.toLowerCase(Locale.ROOT), line);
+                    }
                 }
             }
         }
+        index = i;
+        return i;
     }
 
-    private Entry readDirEntry(String parentDir) throws IOException {
+    private Path[] readDirEntries(String parentDir) throws IOException {
+        DirectoryListingEvent event = null;
+        if (jfrRecording()) {
+            event = new DirectoryListingEvent();
+            event.begin();
+        }
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
         List<String> l = new ArrayList<>();
 
         // find all files in parent dir
-        for (String file : getFilesList()) {
+        for (String file : getFilesList().keySet()) {
             if(isParent(parentDir, file)) {
                 l.add(file);
             }
@@ -359,7 +1293,16 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
         for (int i = 0; i < paths.length; i++) {
             paths[i] = Paths.get(resourcePathToPlatformPath(l.get(i)));
         }
-        return new Entry(false, paths);
+        if (Metrics.ENABLED) {
+            Metrics.DIRECTORY_LISTINGS.increment();
+            Metrics.DIRECTORY_LISTING_NANOS.add(System.nanoTime() - start);
+        }
+        if (event != null && event.shouldCommit()) {
+            event.path = parentDir;
+            event.entries = paths.length;
+            event.commit();
+        }
+        return paths;
     }
 
     private static boolean isParent(String parentDir, String file) {
@@ -367,11 +1310,40 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
                file.indexOf(RESOURCE_SEPARATOR_CHAR, parentDir.length() + 1) < 0;
     }
 
-    private static Entry readFileEntry(String file) throws IOException {
-        return new Entry(true, readResource(file));
+    private static byte[] fileContent(Entry e) throws IOException {
+        assert e.isFile;
+        if (e.data == null) {
+            byte[] bytes = readResource(e.resourcePath);
+            if (bytes == null) {
+                throw new IOException("no such file " + e.resourcePath);
+            }
+            e.size = bytes.length;
+            e.data = bytes;
+        }
+        return (byte[]) e.data;
+    }
+
+    private Path[] dirContent(Entry e) throws IOException {
+        assert !e.isFile;
+        if (e.data == null) {
+            e.data = readDirEntries(e.resourcePath);
+        }
+        return (Path[]) e.data;
+    }
+
+    static long resourceReads() {
+        return Metrics.RESOURCE_LOADS.sum();
     }
 
     static byte[] readResource(String path) throws IOException {
+        FileLoadEvent event = null;
+        if (jfrRecording()) {
+            event = new FileLoadEvent();
+            event.begin();
+        }
+        if (Metrics.ENABLED) {
+            Metrics.RESOURCE_LOADS.increment();
+        }
         try (InputStream stream = VirtualFileSystem.class.getResourceAsStream(path)) {
             if (stream == null) {
                 return null;
@@ -384,7 +1356,16 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
                 buffer.write(data, 0, n);
             }
             buffer.flush();
-            return buffer.toByteArray();
+            byte[] bytes = buffer.toByteArray();
+            if (Metrics.ENABLED) {
+                Metrics.BYTES_LOADED.add(bytes.length);
+            }
+            if (event != null && event.shouldCommit()) {
+                event.path = path;
+                event.size = bytes.length;
+                event.commit();
+            }
+            return bytes;
         }
     }
 
@@ -398,27 +1379,161 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
     private Entry file(Path path) throws IOException {
         path = toAbsolutePathInternal(path).normalize();
         String pathString = path.toString();
-        String entryKey = caseInsensitive ? pathString.toLowerCase(Locale.ROOT) : pathString;
+        String entryKey = entryKey(pathString);
         Entry e = VFS_ENTRIES.get(entryKey);
+        if (Metrics.ENABLED) {
+            (e == null ? Metrics.CACHE_MISSES : Metrics.CACHE_HITS).increment();
+        }
         if(e == null) {
             pathString = platformPathToResourcePath(pathString);
-            URL uri = pathString == null ? null : VirtualFileSystem.class.getResource(pathString);
-            if(uri != null) {
-                if(getDirsList().contains(pathString)) {
-                    e = readDirEntry(pathString);
-                } else {
-                    e = readFileEntry(pathString);
-                }
-                VFS_ENTRIES.put(entryKey, e);
+            if (pathString == null) {
+                return null;
+            }
+            Long size = getFilesList().get(pathString);
+            if (size != null) {
+                e = new Entry(pathString, true, size);
+            } else if (getDirsList().contains(pathString)) {
+                e = new Entry(pathString, false, 0);
             } else {
-                if(getDirsList().contains(pathString)) {
-                    e = readDirEntry(pathString);
-                }
+                return null;
+            }
+            // keep the entry another thread may have added meanwhile, so inodes stay stable
+            Entry existing = VFS_ENTRIES.putIfAbsent(entryKey, e);
+            if (existing != null) {
+                e = existing;
             }
         }
         return e;
     }
 
+    private static String entryKey(String path) {
+        return caseInsensitive ? path.toLowerCase(Locale.ROOT) : path;
+    }
+
+    /**
+     * Returns the file in the overlay directory for a path below the mount point, or {@code null}
+     * if there is no overlay or it does not contain the path.
+     */
+    private Path overlayPath(Path path) {
+        if (overlay == null) {
+            return null;
+        }
+        Path relPath = mountPoint.relativize(toAbsolutePathInternal(path).normalize());
+        Path hostPath = overlay.root.resolve(relPath.toString());
+        return overlay.exists(hostPath) ? hostPath : null;
+    }
+
+    /**
+     * A host directory, given by GRAALPY_VFS_OVERLAY, whose contents are served at the mount point
+     * in place of the embedded files with the same path, so Python sources can be edited without
+     * rebuilding. Directories that exist in both are merged. Files are always read from the disk,
+     * only whether a path exists on the host is cached, keyed like {@link #file} by the path, or
+     * its lower case where lookups ignore case. A watch service drops the cached results for the
+     * paths that change, so edits are visible to the running context.
+     */
+    private static final class Overlay implements Runnable {
+        private static final Map<Path, Overlay> OVERLAYS = new ConcurrentHashMap<>();
+
+        final Path root;
+        private final ConcurrentSkipListMap<String, Boolean> exists = new ConcurrentSkipListMap<>();
+        /*
+         * Incremented by the watcher before it drops changed paths. A lookup that overlaps
+         * with a change does not keep its result, which may predate the change.
+         */
+        private final AtomicLong generation = new AtomicLong();
+        private final WatchService watcher;
+
+        private Overlay(Path root) {
+            this.root = root;
+            WatchService ws;
+            try {
+                ws = root.getFileSystem().newWatchService();
+                register(ws, root);
+            } catch (IOException e) {
+                System.err.format("Cannot watch '%s', overlay lookups are not cached: %s%n", root, e);
+                ws = null;
+            }
+            this.watcher = ws;
+            if (watcher != null) {
+                Thread t = new Thread(this, "graalpy-vfs-overlay");
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+
+        static Overlay get(Path root) {
+            // all filesystems of the process share the watches of a directory
+            return OVERLAYS.computeIfAbsent(root, Overlay::new);
+        }
+
+        boolean exists(Path hostPath) {
+            if (watcher == null) {
+                return Files.exists(hostPath);
+            }
+            String key = entryKey(hostPath.toString());
+            Boolean cached = exists.get(key);
+            if (cached != null) {
+                return cached;
+            }
+            long start = generation.get();
+            boolean result = Files.exists(hostPath);
+            exists.putIfAbsent(key, result);
+            if (generation.get() != start) {
+                exists.remove(key, result);
+            }
+            return result;
+        }
+
+        /**
+         * Drops the cached results for {@code hostPath} and everything below it.
+         */
+        private void invalidate(Path hostPath) {
+            String key = entryKey(hostPath.toString());
+            exists.remove(key);
+            String prefix = key + PLATFORM_SEPARATOR;
+            exists.subMap(prefix, prefix + Character.MAX_VALUE).clear();
+        }
+
+        private static void register(WatchService ws, Path dir) throws IOException {
+            try (var s = Files.walk(dir)) {
+                for (Path d : (Iterable<Path>) s.filter(Files::isDirectory)::iterator) {
+                    d.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                WatchKey key;
+                try {
+                    key = watcher.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                generation.incrementAndGet();
+                Path dir = (Path) key.watchable();
+                for (var event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // events were lost, start over
+                        exists.clear();
+                        continue;
+                    }
+                    Path changed = dir.resolve((Path) event.context());
+                    invalidate(changed);
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                        try {
+                            register(watcher, changed);
+                        } catch (IOException e) {
+                            System.err.format("Cannot watch '%s': %s%n", changed, e);
+                        }
+                    }
+                }
+                key.reset();
+            }
+        }
+    }
+
     /**
      * Uses {@link #extractFilter} to determine if the given platform path should be extracted.
      */
@@ -434,6 +1549,14 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
     private Path getExtractedPath(Path path) {
         assert extractDir != null;
         assert shouldExtract(path);
+        if (path.normalize().startsWith(mountPoint) || !path.isAbsolute()) {
+            // files in the overlay are on the disk already
+            Path hostPath = overlayPath(path);
+            if (hostPath != null) {
+                return hostPath;
+            }
+        }
+        long start = Metrics.ENABLED ? System.nanoTime() : 0;
         try {
             /*
              * Remove the mountPoint(X) (e.g. "graalpy_vfs(x)") prefix if given. Method 'file' is
@@ -453,22 +1576,189 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
                 if (e == null) {
                     return path;
                 }
-                if (e.isFile()) {
+                ExtractionEvent event = null;
+                if (jfrRecording()) {
+                    event = new ExtractionEvent();
+                    event.begin();
+                }
+                if (e.isFile) {
                     // first create parent dirs
                     Path parent = xPath.getParent();
                     assert parent == null || Files.isDirectory(parent);
                     Files.createDirectories(parent);
 
                     // write data extracted file
-                    Files.write(xPath, (byte[]) e.data());
+                    Files.write(xPath, fileContent(e));
                 } else {
                     Files.createDirectories(xPath);
                 }
+                if (Metrics.ENABLED) {
+                    Metrics.EXTRACTIONS.increment();
+                }
+                if (event != null && event.shouldCommit()) {
+                    event.path = e.resourcePath;
+                    event.size = e.isFile ? fileContent(e).length : 0;
+                    event.commit();
+                }
             }
 
             return xPath;
         } catch (IOException e) {
             throw new RuntimeException(String.format("Error while extracting virtual filesystem path '%s' to the disk", path), e);
+        } finally {
+            if (Metrics.ENABLED) {
+                Metrics.EXTRACTED_PATH_NANOS.add(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /*
+     * Events are only created once the flight recorder is initialized, e.g. by
+     * -XX:StartFlightRecording or jcmd, so apps that are not recorded do not load
+     * and initialize the JFR event classes during startup.
+     */
+    private static boolean jfrRecording() {
+        return FlightRecorder.isInitialized();
+    }
+
+    @Name("org.graalvm.python.VirtualFileSystem.FileLoad")
+    @Label("VFS File Load")
+    @Category({"GraalPy", "Virtual File System"})
+    @Description("A file is read from the resources")
+    static final class FileLoadEvent extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+    }
+
+    @Name("org.graalvm.python.VirtualFileSystem.Extraction")
+    @Label("VFS Extraction")
+    @Category({"GraalPy", "Virtual File System"})
+    @Description("A file or directory is extracted to the temporary directory")
+    static final class ExtractionEvent extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+    }
+
+    @Name("org.graalvm.python.VirtualFileSystem.DirectoryListing")
+    @Label("VFS Directory Listing")
+    @Category({"GraalPy", "Virtual File System"})
+    @Description("The entries of a directory are collected from the index")
+    static final class DirectoryListingEvent extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Entries")
+        int entries;
+    }
+
+    /**
+     * Cumulative counters of the virtual filesystem, published as the MBean
+     * {@code org.graalvm.python:type=VirtualFileSystem}. Counting only happens if the
+     * GRAALPY_VFS_METRICS environment variable is set (or GRAALPY_STARTUP_TRACE, which
+     * reports the resource loads), otherwise the counters stay at zero.
+     */
+    static final class Metrics implements DynamicMBean {
+        static final boolean ENABLED = System.getenv("GRAALPY_VFS_METRICS") != null || System.getenv("GRAALPY_STARTUP_TRACE") != null;
+        static final String OBJECT_NAME = "org.graalvm.python:type=VirtualFileSystem";
+
+        static final LongAdder CACHE_HITS = new LongAdder();
+        static final LongAdder CACHE_MISSES = new LongAdder();
+        static final LongAdder RESOURCE_LOADS = new LongAdder();
+        static final LongAdder BYTES_LOADED = new LongAdder();
+        static final LongAdder EXTRACTIONS = new LongAdder();
+        static final LongAdder EXTRACTED_PATH_NANOS = new LongAdder();
+        static final LongAdder DIRECTORY_LISTINGS = new LongAdder();
+        static final LongAdder DIRECTORY_LISTING_NANOS = new LongAdder();
+
+        private static final String[][] ATTRIBUTES = {
+            {"CacheHits", "Lookups answered from the entry cache"},
+            {"CacheMisses", "Lookups that were not in the entry cache"},
+            {"CachedEntries", "Number of entries in the entry cache"},
+            {"IndexedFiles", "Number of files in the index"},
+            {"IndexedDirectories", "Number of directories in the index"},
+            {"ResourceLoads", "Number of resources loaded from the classpath"},
+            {"BytesLoaded", "Bytes loaded from the classpath"},
+            {"Extractions", "Files and directories extracted to the temporary directory"},
+            {"ExtractedPathNanos", "Time spent computing extracted paths, including the extraction"},
+            {"DirectoryListings", "Directory listings collected from the index"},
+            {"DirectoryListingNanos", "Time spent collecting directory listings"},
+        };
+
+        private static boolean registered;
+
+        static synchronized void register() {
+            if (!ENABLED || registered) {
+                return;
+            }
+            registered = true;
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new Metrics(), new ObjectName(OBJECT_NAME));
+            } catch (JMException | LinkageError | UnsupportedOperationException e) {
+                System.err.format("Could not register %s: %s%n", OBJECT_NAME, e);
+            }
+        }
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            return switch (attribute) {
+                case "CacheHits" -> CACHE_HITS.sum();
+                case "CacheMisses" -> CACHE_MISSES.sum();
+                case "CachedEntries" -> (long) VFS_ENTRIES.size();
+                case "IndexedFiles" -> index == null ? 0L : (long) index.filesList.size();
+                case "IndexedDirectories" -> index == null ? 0L : (long) index.dirsList.size();
+                case "ResourceLoads" -> RESOURCE_LOADS.sum();
+                case "BytesLoaded" -> BYTES_LOADED.sum();
+                case "Extractions" -> EXTRACTIONS.sum();
+                case "ExtractedPathNanos" -> EXTRACTED_PATH_NANOS.sum();
+                case "DirectoryListings" -> DIRECTORY_LISTINGS.sum();
+                case "DirectoryListingNanos" -> DIRECTORY_LISTING_NANOS.sum();
+                default -> throw new AttributeNotFoundException(attribute);
+            };
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            AttributeList list = new AttributeList();
+            for (String name : attributes) {
+                try {
+                    list.add(new Attribute(name, getAttribute(name)));
+                } catch (AttributeNotFoundException e) {
+                    // skipped, as specified by DynamicMBean
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+            throw new ReflectionException(new NoSuchMethodException(actionName));
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            MBeanAttributeInfo[] infos = new MBeanAttributeInfo[ATTRIBUTES.length];
+            for (int i = 0; i < infos.length; i++) {
+                infos[i] = new MBeanAttributeInfo(ATTRIBUTES[i][0], "long", ATTRIBUTES[i][1], true, false, false);
+            }
+            return new MBeanInfo(Metrics.class.getName(), "GraalPy virtual filesystem metrics", infos, null, new MBeanOperationInfo[0], new MBeanNotificationInfo[0]);
         }
     }
 
@@ -492,7 +1782,7 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
             if (modes.contains(AccessMode.WRITE)) {
                 throw new IOException("read-only filesystem");
             }
-            if (file(path) == null) {
+            if (overlayPath(path) == null && file(path) == null) {
                 throw new IOException("no such file or directory");
             }
         } else {
@@ -525,6 +1815,10 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
         }
 
         if (options.isEmpty() || (options.size() == 1 && options.contains(StandardOpenOption.READ))) {
+            Path hostPath = overlayPath(path);
+            if (hostPath != null) {
+                return delegate.newByteChannel(hostPath, options, attrs);
+            }
             final Entry e = file(path);
             if (e == null) {
                 throw new IOException("no such file");
@@ -535,7 +1829,7 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
             return new SeekableByteChannel() {
                 long position = 0;
 
-                byte[] bytes = (byte[]) e.data;
+                byte[] bytes = fileContent(e);
 
                 @Override
                 public int read(ByteBuffer dst) throws IOException {
@@ -600,12 +1894,37 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
             return delegate.newDirectoryStream(dir, filter);
         }
         Entry e = file(dir);
-        if (e == null) {
-            throw new IOException("no such file or directory");
-        }
-        if (e.isFile) {
-            // a file, not a directory
-            throw new NotDirectoryException(dir.toString());
+        Path hostDir = overlayPath(dir);
+        final Path[] entries;
+        if (hostDir != null) {
+            if (!Files.isDirectory(hostDir)) {
+                throw new NotDirectoryException(dir.toString());
+            }
+            // merge the embedded entries with those on the host, which replace embedded
+            // entries of the same name, ignoring case where the resources are looked up so
+            Map<String, Path> merged = new LinkedHashMap<>();
+            if (e != null && !e.isFile) {
+                for (Path p : dirContent(e)) {
+                    merged.put(entryKey(p.getFileName().toString()), p);
+                }
+            }
+            Path platformDir = toAbsolutePathInternal(dir).normalize();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(hostDir)) {
+                for (Path p : ds) {
+                    String name = p.getFileName().toString();
+                    merged.put(entryKey(name), platformDir.resolve(name));
+                }
+            }
+            entries = merged.values().toArray(new Path[0]);
+        } else {
+            if (e == null) {
+                throw new IOException("no such file or directory");
+            }
+            if (e.isFile) {
+                // a file, not a directory
+                throw new NotDirectoryException(dir.toString());
+            }
+            entries = dirContent(e);
         }
         return new DirectoryStream<>() {
             @Override
@@ -615,7 +1934,7 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
 
             @Override
             public Iterator<Path> iterator() {
-                return Arrays.asList((Path[])e.data).iterator();
+                return Arrays.asList(entries).iterator();
             }
         };
     }
@@ -647,29 +1966,80 @@ final class VirtualFileSystem implements FileSystem, AutoCloseable {
         if (!path.normalize().startsWith(mountPoint)) {
             return delegate.readAttributes(path, attributes, options);
         }
+        Path hostPath = overlayPath(path);
+        if (hostPath != null) {
+            return delegate.readAttributes(hostPath, attributes, options);
+        }
         Entry e = file(path);
         if (e == null) {
             throw new IOException("no such file " + path);
         }
-        HashMap<String, Object> attrs = new HashMap<>();
-        if (attributes.startsWith("unix:") || attributes.startsWith("posix:") ) {
-            throw new UnsupportedOperationException();
-        }
-
-        attrs.put("creationTime", FileTime.fromMillis(0));
-        attrs.put("lastModifiedTime", FileTime.fromMillis(0));
-        attrs.put("lastAccessTime", FileTime.fromMillis(0));
-        attrs.put("isRegularFile", e.isFile);
-        attrs.put("isDirectory", !e.isFile);
-        attrs.put("isSymbolicLink", false);
-        attrs.put("isOther", false);
-        attrs.put("size", (long) (e.isFile ? ((byte[])e.data).length : 0));
-        attrs.put("mode", 0555);
-        attrs.put("dev", 0L);
-        attrs.put("nlink", 1);
-        attrs.put("uid", 0);
-        attrs.put("gid", 0);
-        attrs.put("ctime", FileTime.fromMillis(0));
+        Map<String, Object> attrs = e.attributeViews.get(attributes);
+        if (attrs == null) {
+            attrs = computeAttributes(e, attributes);
+            synchronized (e) {
+                var views = new HashMap<>(e.attributeViews);
+                views.put(attributes, attrs);
+                e.attributeViews = Map.copyOf(views);
+            }
+        }
         return attrs;
     }
+
+    /**
+     * Computes the attributes for an {@code attributes} string of the form
+     * {@code [view:]name[,name...]} or {@code [view:]*}, as specified by
+     * {@link java.nio.file.Files#readAttributes(Path, String, LinkOption...)}. The
+     * {@code basic}, {@code posix} and {@code unix} views are supported, names not
+     * known to the view are ignored.
+     */
+    private static Map<String, Object> computeAttributes(Entry e, String attributes) throws IOException {
+        int colon = attributes.indexOf(':');
+        String view = colon < 0 ? "basic" : attributes.substring(0, colon);
+        String names = attributes.substring(colon + 1);
+        int level = switch (view) {
+            case "basic" -> 0;
+            case "posix" -> 1;
+            case "unix" -> 2;
+            default -> throw new UnsupportedOperationException("unsupported attribute view " + view);
+        };
+        long size = e.isFile ? (e.size >= 0 ? e.size : fileContent(e).length) : 0;
+
+        HashMap<String, Object> all = new HashMap<>();
+        all.put("creationTime", EPOCH);
+        all.put("lastModifiedTime", EPOCH);
+        all.put("lastAccessTime", EPOCH);
+        all.put("isRegularFile", e.isFile);
+        all.put("isDirectory", !e.isFile);
+        all.put("isSymbolicLink", false);
+        all.put("isOther", false);
+        all.put("size", size);
+        if (level >= 1) {
+            all.put("owner", ROOT_PRINCIPAL);
+            all.put("group", ROOT_PRINCIPAL);
+            all.put("permissions", PERMISSIONS);
+        }
+        if (level >= 2) {
+            all.put("mode", (e.isFile ? S_IFREG : S_IFDIR) | 0555);
+            all.put("ino", e.inode);
+            all.put("dev", 0L);
+            all.put("rdev", 0L);
+            all.put("nlink", 1);
+            all.put("uid", 0);
+            all.put("gid", 0);
+            all.put("ctime", EPOCH);
+        }
+        if (names.equals("*")) {
+            return Collections.unmodifiableMap(all);
+        }
+        HashMap<String, Object> attrs = new HashMap<>();
+        for (String name : names.split(",")) {
+            if (name.equals("*")) {
+                attrs.putAll(all);
+            } else if (all.containsKey(name)) {
+                attrs.put(name, all.get(name));
+            }
+        }
+        return Collections.unmodifiableMap(attrs);
+    }
 }
@@ -0,0 +1 @@
+APPLIED = True
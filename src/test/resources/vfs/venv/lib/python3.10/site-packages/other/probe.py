@@ -0,0 +1 @@
+FOUND_BY = "index"
@@ -0,0 +1,2 @@
+# a backport that must not replace the stdlib module
+BACKPORT = True